@@ -0,0 +1,35 @@
+plugins {
+    java
+}
+
+group = "io.github.prcraftmc"
+version = "1.0-SNAPSHOT"
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    implementation(project(":"))
+    compileOnly("org.jetbrains:annotations:24.0.1")
+    implementation("org.openjdk.jmh:jmh-core:1.37")
+    annotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.compileJava {
+    options.encoding = "UTF-8"
+    sourceCompatibility = "1.8"
+    targetCompatibility = "1.8"
+    if (JavaVersion.current().isJava9Compatible) {
+        options.release.set(8)
+    }
+}
+
+// Pass JMH arguments with -PjmhArgs="...", for example -PjmhArgs="-f 1 -wi 3 -i 5 PatchBenchmark.diff"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args((project.findProperty("jmhArgs") as String? ?: "").split(" ").filter { it.isNotEmpty() })
+}
@@ -0,0 +1,217 @@
+package io.github.prcraftmc.classdiff.benchmarks;
+
+import org.objectweb.asm.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Pairs of original and modified classes for the benchmarks. The generated classes cover the extremes (huge methods,
+ * many members and heavy annotations), and the ASM classes are real-world sized code with small edits.
+ */
+public enum Corpus {
+    HUGE_METHOD {
+        @Override
+        protected byte[] generate(int revision) {
+            final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+            writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "bench/HugeMethod", null, "java/lang/Object", null);
+            writer.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "TABLE", "[I", null, null).visitEnd();
+
+            // A static initializer filling a table, like generated lookup tables. This is around 30k insns, close to the
+            // code size limit.
+            final int tableSize = 7500;
+            MethodVisitor method = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+            method.visitCode();
+            method.visitIntInsn(Opcodes.SIPUSH, tableSize);
+            method.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+            for (int i = 0; i < tableSize; i++) {
+                if (revision > 0 && i % 1000 == 500) {
+                    continue; // Removed entries
+                }
+                final int value = (i * 31 + 7) & Short.MAX_VALUE;
+                method.visitInsn(Opcodes.DUP);
+                method.visitIntInsn(Opcodes.SIPUSH, i);
+                method.visitIntInsn(Opcodes.SIPUSH, revision > 0 && i % 997 == 0 ? -value : value);
+                method.visitInsn(Opcodes.IASTORE);
+            }
+            method.visitFieldInsn(Opcodes.PUTSTATIC, "bench/HugeMethod", "TABLE", "[I");
+            method.visitInsn(Opcodes.RETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+
+            // A huge tableswitch, like generated string lookups
+            final int caseCount = 2000;
+            method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "lookup", "(I)Ljava/lang/String;", null, null);
+            method.visitCode();
+            final Label dflt = new Label();
+            final Label[] labels = new Label[caseCount];
+            for (int i = 0; i < caseCount; i++) {
+                labels[i] = new Label();
+            }
+            method.visitVarInsn(Opcodes.ILOAD, 0);
+            method.visitTableSwitchInsn(0, caseCount - 1, dflt, labels);
+            for (int i = 0; i < caseCount; i++) {
+                method.visitLabel(labels[i]);
+                method.visitLineNumber(100 + i, labels[i]);
+                method.visitLdcInsn(revision > 0 && i % 250 == 0 ? "changed" + i : "case" + i);
+                method.visitInsn(Opcodes.ARETURN);
+            }
+            method.visitLabel(dflt);
+            method.visitInsn(Opcodes.ACONST_NULL);
+            method.visitInsn(Opcodes.ARETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+
+            writer.visitEnd();
+            return writer.toByteArray();
+        }
+    },
+    MANY_MEMBERS {
+        @Override
+        protected byte[] generate(int revision) {
+            final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "bench/ManyMembers", null, "java/lang/Object", null);
+            final int memberCount = 2000;
+            for (int i = 0; i < memberCount; i++) {
+                if (revision > 0 && i % 400 == 200) {
+                    continue; // Removed members
+                }
+                final String name = revision > 0 && i % 300 == 0 ? "renamed" + i : "field" + i;
+                final String desc = i % 3 == 0 ? "I" : i % 3 == 1 ? "Ljava/lang/String;" : "[J";
+                writer.visitField(Opcodes.ACC_PRIVATE, name, desc, null, null).visitEnd();
+
+                final MethodVisitor method = writer.visitMethod(
+                    Opcodes.ACC_PUBLIC, "get" + name, "()" + desc, null, null
+                );
+                method.visitCode();
+                method.visitVarInsn(Opcodes.ALOAD, 0);
+                method.visitFieldInsn(Opcodes.GETFIELD, "bench/ManyMembers", name, desc);
+                method.visitInsn(desc.equals("I") ? Opcodes.IRETURN : Opcodes.ARETURN);
+                method.visitMaxs(0, 0);
+                method.visitEnd();
+            }
+            if (revision > 0) {
+                for (int i = 0; i < 20; i++) {
+                    writer.visitField(Opcodes.ACC_PUBLIC, "added" + i, "D", null, null).visitEnd();
+                }
+            }
+            writer.visitEnd();
+            return writer.toByteArray();
+        }
+    },
+    ANNOTATIONS {
+        @Override
+        protected byte[] generate(int revision) {
+            final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "bench/Annotations", null, "java/lang/Object", null);
+            visitAnnotations(writer.visitAnnotation("Lbench/Entity;", true), 0, revision);
+            for (int i = 0; i < 500; i++) {
+                final MethodVisitor method = writer.visitMethod(
+                    Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "method" + i, "(ILjava/lang/String;)V", null, null
+                );
+                visitAnnotations(method.visitAnnotation("Lbench/Route;", true), i, revision);
+                visitAnnotations(method.visitAnnotation("Lbench/Meta;", false), i + 1, revision);
+                visitAnnotations(method.visitParameterAnnotation(0, "Lbench/Param;", true), i + 2, revision);
+                visitAnnotations(method.visitParameterAnnotation(1, "Lbench/Param;", true), i + 3, revision);
+                method.visitTypeAnnotation(
+                    TypeReference.newFormalParameterReference(1).getValue(), null, "Lbench/NonNull;", true
+                ).visitEnd();
+                method.visitEnd();
+            }
+            writer.visitEnd();
+            return writer.toByteArray();
+        }
+
+        private void visitAnnotations(AnnotationVisitor annotation, int seed, int revision) {
+            annotation.visit("value", revision > 0 && seed % 50 == 0 ? "changed" + seed : "value" + seed);
+            annotation.visit("priority", seed % 7);
+            annotation.visitEnum("mode", "Lbench/Mode;", seed % 2 == 0 ? "READ" : "WRITE");
+            final AnnotationVisitor array = annotation.visitArray("tags");
+            for (int i = 0; i < 4; i++) {
+                array.visit(null, "tag" + (seed + i) % 13);
+            }
+            array.visitEnd();
+            final AnnotationVisitor nested = annotation.visitAnnotation("owner", "Lbench/Owner;");
+            nested.visit("name", "owner" + seed % 5);
+            nested.visitEnd();
+            annotation.visitEnd();
+        }
+    },
+    ASM_CLASS_READER {
+        @Override
+        protected byte[] generate(int revision) {
+            return readAsmClass("org/objectweb/asm/ClassReader", revision);
+        }
+    },
+    ASM_METHOD_WRITER {
+        @Override
+        protected byte[] generate(int revision) {
+            return readAsmClass("org/objectweb/asm/MethodWriter", revision);
+        }
+    };
+
+    public byte[] original() {
+        return generate(0);
+    }
+
+    public byte[] modified() {
+        return generate(1);
+    }
+
+    protected abstract byte[] generate(int revision);
+
+    /**
+     * Reads a class from ASM. The modified revision changes some integer constants and adds a field, which stands in
+     * for a typical small edit.
+     */
+    private static byte[] readAsmClass(String className, int revision) {
+        final byte[] original;
+        try (InputStream is = Corpus.class.getClassLoader().getResourceAsStream(className + ".class")) {
+            if (is == null) {
+                throw new IllegalStateException("Missing " + className);
+            }
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                output.write(buffer, 0, n);
+            }
+            original = output.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (revision == 0) {
+            return original;
+        }
+        final ClassReader reader = new ClassReader(original);
+        final ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+            int methodIndex;
+
+            @Override
+            public MethodVisitor visitMethod(
+                int access, String name, String descriptor, String signature, String[] exceptions
+            ) {
+                final MethodVisitor delegate = super.visitMethod(access, name, descriptor, signature, exceptions);
+                if (methodIndex++ % 4 != 0) {
+                    return delegate;
+                }
+                return new MethodVisitor(Opcodes.ASM9, delegate) {
+                    @Override
+                    public void visitIntInsn(int opcode, int operand) {
+                        super.visitIntInsn(opcode, opcode == Opcodes.BIPUSH ? operand ^ 1 : operand);
+                    }
+                };
+            }
+
+            @Override
+            public void visitEnd() {
+                super.visitField(Opcodes.ACC_PRIVATE, "benchmarkAdded", "I", null, null).visitEnd();
+                super.visitEnd();
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.prcraftmc.classdiff.benchmarks;
+
+import com.github.difflib.patch.Patch;
+import io.github.prcraftmc.classdiff.ClassDiffer;
+import io.github.prcraftmc.classdiff.ClassPatcher;
+import io.github.prcraftmc.classdiff.format.*;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each phase of a patch's life separately: diffing, writing, parsing the constant pool, reading the
+ * sections and patching.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatchBenchmark {
+    @Param
+    public Corpus corpus;
+
+    private byte[] originalBytes;
+    private byte[] modifiedBytes;
+    private ClassNode original;
+    private ClassNode modified;
+    private DiffWriter writer;
+    private byte[] patch;
+    private DiffReader reader;
+
+    @Setup
+    public void setup() {
+        originalBytes = corpus.original();
+        modifiedBytes = corpus.modified();
+        original = readClass(originalBytes);
+        modified = readClass(modifiedBytes);
+        writer = new DiffWriter();
+        ClassDiffer.diff(original, modified, writer);
+        patch = writer.toByteArray();
+        reader = new DiffReader(patch);
+    }
+
+    @Benchmark
+    public DiffWriter diff() {
+        final DiffWriter result = new DiffWriter();
+        new ClassDiffer(result).accept(original, modified);
+        return result;
+    }
+
+    @Benchmark
+    public DiffWriter diffParallel() {
+        final DiffWriter result = new DiffWriter();
+        new ClassDiffer(result, null, ForkJoinPool.commonPool()).accept(original, modified);
+        return result;
+    }
+
+    @Benchmark
+    public DiffWriter diffFromReaders() {
+        final DiffWriter result = new DiffWriter();
+        ClassDiffer.diff(new ClassReader(originalBytes), new ClassReader(modifiedBytes), result);
+        return result;
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public DiffReader readConstantPool() {
+        return new DiffReader(patch);
+    }
+
+    @Benchmark
+    public void readSections() {
+        reader.accept(new DecodingVisitor(), original);
+    }
+
+    @Benchmark
+    public ClassNode patch(PatchTarget target) {
+        ClassPatcher.patch(target.node, reader);
+        return target.node;
+    }
+
+    @Benchmark
+    public byte[] patchFromReader() {
+        final ClassReader classReader = new ClassReader(originalBytes);
+        final ClassWriter output = new ClassWriter(classReader, 0);
+        ClassPatcher.patch(classReader, reader, output);
+        return output.toByteArray();
+    }
+
+    @State(Scope.Thread)
+    public static class PatchTarget {
+        ClassNode node;
+
+        @Setup(Level.Invocation)
+        public void setup(PatchBenchmark benchmark) {
+            node = readClass(benchmark.corpus.original());
+        }
+    }
+
+    private static ClassNode readClass(byte[] bytes) {
+        final ClassNode result = new ClassNode();
+        new ClassReader(bytes).accept(result, 0);
+        return result;
+    }
+
+    /**
+     * Visits every member, so that {@link DiffReader} decodes all of the patch without anything else being measured.
+     */
+    private static class DecodingVisitor extends DiffVisitor {
+        @Override
+        public RecordComponentDiffVisitor visitRecordComponent(String name, String descriptor, @Nullable String signature) {
+            return new RecordComponentDiffVisitor() {
+            };
+        }
+
+        @Override
+        public ModuleDiffVisitor visitModule(@Nullable String name, int access, @Nullable String version) {
+            return new ModuleDiffVisitor() {
+            };
+        }
+
+        @Override
+        public FieldDiffVisitor visitField(
+            int access, String name, String descriptor, @Nullable String signature, @Nullable Object value
+        ) {
+            return new FieldDiffVisitor() {
+            };
+        }
+
+        @Override
+        public MethodDiffVisitor visitMethod(
+            int access, String name, String descriptor, @Nullable String signature, Patch<String> exceptions
+        ) {
+            return new MethodDiffVisitor() {
+            };
+        }
+    }
+}
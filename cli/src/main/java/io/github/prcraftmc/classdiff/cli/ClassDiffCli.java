@@ -5,8 +5,11 @@ import com.github.difflib.UnifiedDiffUtils;
 import com.github.difflib.patch.Patch;
 import io.github.prcraftmc.classdiff.ClassDiffer;
 import io.github.prcraftmc.classdiff.ClassPatcher;
+import io.github.prcraftmc.classdiff.DiskPatchCache;
+import io.github.prcraftmc.classdiff.PatchComposer;
 import io.github.prcraftmc.classdiff.format.DiffReader;
 import io.github.prcraftmc.classdiff.format.DiffWriter;
+import io.github.prcraftmc.classdiff.format.PatchArchiveWriter;
 import io.github.prcraftmc.classdiff.util.Util;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.helper.HelpScreenException;
@@ -27,16 +30,30 @@ import org.objectweb.asm.util.ASMifier;
 import org.objectweb.asm.util.Textifier;
 import org.objectweb.asm.util.TraceClassVisitor;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class ClassDiffCli {
+    private static final String PATCH_ARCHIVE_EXTENSION = ".cdiff.zip";
+    private static final String INDEXED_ARCHIVE_EXTENSION = ".cdiffidx";
+    // Patch archives keep class patches, verbatim entries, and the list of removed entries apart, so that no jar entry
+    // can be mistaken for another kind
+    private static final String PATCHES_PREFIX = "patches/";
+    private static final String FILES_PREFIX = "files/";
+    private static final String REMOVED_ENTRIES_NAME = "removed.txt";
+
     public static void main(String[] args) throws Exception {
         final ArgumentParser parser = ArgumentParsers.newFor("class-diff")
             .fromFilePrefix("@")
@@ -52,11 +69,22 @@ public class ClassDiffCli {
                     "will be left invalid after patching due to the constant pool being in a different order."
             )
             .action(Arguments.storeTrue());
+        parser.addArgument("--cache")
+            .type(new PathArgumentType(false))
+            .help("Directory to cache patched classes in, so that applying the same patch to the same class again is a file copy");
+        parser.addArgument("--cache-size")
+            .type(Long.class)
+            .setDefault(512L)
+            .help("Maximum size of the cache in MiB, above which the least recently used classes are deleted");
 
         final Subparser diff = parser.addSubparsers()
             .addParser("diff")
             .help("Generate a patch between two class files")
             .setDefault("action", Options.Action.DIFF);
+        diff.addArgument("-j", "--threads")
+            .type(Integer.class)
+            .setDefault(1)
+            .help("Number of methods to diff in parallel");
         diff.addArgument("source")
             .type(new PathArgumentType(true))
             .help("Source file to diff from");
@@ -68,6 +96,31 @@ public class ClassDiffCli {
             .help("Target file to output to")
             .nargs("?");
 
+        final Subparser diffJar = parser.addSubparsers()
+            .addParser("diff-jar")
+            .help("Generate a patch archive between two jar files")
+            .setDefault("action", Options.Action.DIFF_JAR);
+        diffJar.addArgument("-j", "--threads")
+            .type(Integer.class)
+            .setDefault(Runtime.getRuntime().availableProcessors())
+            .help("Number of classes to diff in parallel");
+        diffJar.addArgument("-x", "--indexed")
+            .help(
+                "Write an indexed patch archive, which can be memory-mapped and searched by class name. It only holds " +
+                "the diffs of classes present in both jars."
+            )
+            .action(Arguments.storeTrue());
+        diffJar.addArgument("source")
+            .type(new PathArgumentType(true))
+            .help("Source jar to diff from");
+        diffJar.addArgument("target")
+            .type(new PathArgumentType(true))
+            .help("Modified jar to diff with");
+        diffJar.addArgument("output")
+            .type(new PathArgumentType(false))
+            .help("Target patch archive to output to")
+            .nargs("?");
+
         final Subparser apply = parser.addSubparsers()
             .addParser("apply")
             .help("Apply a patch to a class file")
@@ -83,6 +136,40 @@ public class ClassDiffCli {
             .help("Target file to output to")
             .nargs("?");
 
+        final Subparser applyJar = parser.addSubparsers()
+            .addParser("apply-jar")
+            .help("Apply a patch archive to a jar file")
+            .setDefault("action", Options.Action.APPLY_JAR);
+        applyJar.addArgument("-j", "--threads")
+            .type(Integer.class)
+            .setDefault(Runtime.getRuntime().availableProcessors())
+            .help("Number of classes to patch in parallel");
+        applyJar.addArgument("source")
+            .type(new PathArgumentType(true))
+            .help("Source jar to patch");
+        applyJar.addArgument("patch")
+            .type(new PathArgumentType(true))
+            .help("Patch archive to apply");
+        applyJar.addArgument("output")
+            .type(new PathArgumentType(false))
+            .help("Target jar to output to")
+            .nargs("?");
+
+        final Subparser compose = parser.addSubparsers()
+            .addParser("compose")
+            .help("Combine a chain of patches to a class file into a single patch")
+            .setDefault("action", Options.Action.COMPOSE);
+        compose.addArgument("-o", "--output")
+            .type(new PathArgumentType(false))
+            .help("Target file to output to");
+        compose.addArgument("source")
+            .type(new PathArgumentType(true))
+            .help("Source file that the first patch applies to");
+        compose.addArgument("patches")
+            .type(new PathArgumentType(true))
+            .nargs("+")
+            .help("Patch files to combine, each applying to the output of the one before it");
+
         final Subparser print = parser.addSubparsers()
             .addParser("print")
             .help("Print information about things");
@@ -136,9 +223,18 @@ public class ClassDiffCli {
             case DIFF:
                 diff(options);
                 break;
+            case DIFF_JAR:
+                diffJar(options);
+                break;
             case APPLY:
                 apply(options);
                 break;
+            case APPLY_JAR:
+                applyJar(options);
+                break;
+            case COMPOSE:
+                compose(options);
+                break;
             case PRINT_CLASS:
                 printClass(options);
                 break;
@@ -165,9 +261,18 @@ public class ClassDiffCli {
         final ClassNode target = readClass(options, options.target);
 
         final DiffWriter writer = new DiffWriter();
-        ClassDiffer.diff(source, target, writer);
-        try {
-            Files.write(output, writer.toByteArray());
+        if (options.threads > 1) {
+            final ForkJoinPool pool = new ForkJoinPool(options.threads);
+            try {
+                new ClassDiffer(writer, null, pool).accept(source, target);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            ClassDiffer.diff(source, target, writer);
+        }
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(output))) {
+            writer.writeTo(os);
         } catch (IOException e) {
             System.err.println(Ansi.ansi()
                 .fgBrightRed()
@@ -182,15 +287,232 @@ public class ClassDiffCli {
         tryClose(options.source, options.target, output);
     }
 
+    public static void diffJar(Options options) throws Exception {
+        final Path output = options.getOutput(o -> {
+            final String targetFilename = o.target.getFileName().toString();
+            final int dotIndex = targetFilename.lastIndexOf('.');
+            final String strippedFilename = dotIndex >= 0 ? targetFilename.substring(0, dotIndex) : targetFilename;
+            return o.target.toAbsolutePath().getParent().resolve(
+                strippedFilename + (o.indexed ? INDEXED_ARCHIVE_EXTENSION : PATCH_ARCHIVE_EXTENSION)
+            );
+        });
+
+        try (
+            FileSystem sourceFs = FileSystems.newFileSystem(options.source, (ClassLoader)null);
+            FileSystem targetFs = FileSystems.newFileSystem(options.target, (ClassLoader)null)
+        ) {
+            if (options.indexed) {
+                diffJarIndexed(options, listJarEntries(sourceFs), listJarEntries(targetFs), output);
+            } else {
+                diffJar(options, listJarEntries(sourceFs), listJarEntries(targetFs), output);
+            }
+        }
+        tryClose(options.source, options.target, output);
+    }
+
+    private static void diffJar(
+        Options options, Map<String, Path> sourceEntries, Map<String, Path> targetEntries, Path output
+    ) throws IOException {
+        final List<String> removed = new ArrayList<>();
+        for (final String name : sourceEntries.keySet()) {
+            if (!targetEntries.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+
+        final int threads = Math.max(options.threads, 1);
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        // Entries are written in jar order as soon as they are done, with only a bounded number in flight
+        final Deque<Map.Entry<String, ForkJoinTask<EntryContents>>> pending = new ArrayDeque<>();
+        final Iterator<Map.Entry<String, Path>> entries = targetEntries.entrySet().iterator();
+        int patchCount = 0;
+        int addedCount = 0;
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            while (entries.hasNext() || !pending.isEmpty()) {
+                if (entries.hasNext()) {
+                    final Map.Entry<String, Path> entry = entries.next();
+                    final Path sourcePath = sourceEntries.get(entry.getKey());
+                    final Path targetPath = entry.getValue();
+                    pending.add(new AbstractMap.SimpleImmutableEntry<>(
+                        entry.getKey(), pool.submit(() -> diffJarEntry(options, sourcePath, targetPath))
+                    ));
+                }
+
+                while (
+                    !pending.isEmpty()
+                        && (pending.peek().getValue().isDone() || pending.size() > threads * 4 || !entries.hasNext())
+                ) {
+                    final Map.Entry<String, ForkJoinTask<EntryContents>> task = pending.poll();
+                    final String name = task.getKey();
+                    final EntryContents result;
+                    try {
+                        result = task.getValue().join();
+                    } catch (RuntimeException e) {
+                        System.err.println(Ansi.ansi()
+                            .fgBrightRed()
+                            .a("Failed to diff ").a(name)
+                            .a('\n').a(e)
+                            .reset()
+                        );
+                        System.exit(1);
+                        return;
+                    }
+                    if (result == null) continue;
+                    if (sourceEntries.containsKey(name) && name.endsWith(".class")) {
+                        zos.putNextEntry(new ZipEntry(patchEntryName(name)));
+                        patchCount++;
+                    } else {
+                        zos.putNextEntry(new ZipEntry(FILES_PREFIX + name));
+                        addedCount++;
+                    }
+                    result.writeTo(zos);
+                    zos.closeEntry();
+                }
+            }
+            if (!removed.isEmpty()) {
+                zos.putNextEntry(new ZipEntry(REMOVED_ENTRIES_NAME));
+                zos.write(String.join("\n", removed).getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.println(
+            "Patch archive with " + patchCount + " patches, " + addedCount + " new or replaced entries, and "
+                + removed.size() + " removed entries written to " + output
+        );
+    }
+
+    private static void diffJarIndexed(
+        Options options, Map<String, Path> sourceEntries, Map<String, Path> targetEntries, Path output
+    ) throws IOException {
+        int skippedCount = 0;
+        for (final String name : sourceEntries.keySet()) {
+            if (!targetEntries.containsKey(name)) {
+                skippedCount++;
+            }
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(options.threads, 1));
+        final List<Map.Entry<String, ForkJoinTask<Consumer<PatchArchiveWriter>>>> tasks = new ArrayList<>();
+        for (final Map.Entry<String, Path> entry : targetEntries.entrySet()) {
+            final String name = entry.getKey();
+            final Path sourcePath = sourceEntries.get(name);
+            final Path targetPath = entry.getValue();
+            if (sourcePath == null || !name.endsWith(".class")) {
+                skippedCount++;
+                continue;
+            }
+            final String className = name.substring(0, name.length() - 6);
+            tasks.add(new AbstractMap.SimpleImmutableEntry<>(name, pool.submit(() -> {
+                final byte[] sourceBytes = Files.readAllBytes(sourcePath);
+                final byte[] targetBytes = Files.readAllBytes(targetPath);
+                if (Arrays.equals(sourceBytes, targetBytes)) {
+                    return null;
+                }
+                final byte[] patch = diffClass(options, sourceBytes, targetBytes).toByteArray();
+                final long sourceChecksum = Util.hash64(sourceBytes);
+                return writer -> writer.add(className, sourceChecksum, patch);
+            })));
+        }
+
+        final PatchArchiveWriter writer = new PatchArchiveWriter();
+        try {
+            for (final Map.Entry<String, ForkJoinTask<Consumer<PatchArchiveWriter>>> task : tasks) {
+                final Consumer<PatchArchiveWriter> result;
+                try {
+                    result = task.getValue().join();
+                } catch (RuntimeException e) {
+                    System.err.println(Ansi.ansi()
+                        .fgBrightRed()
+                        .a("Failed to diff ").a(task.getKey())
+                        .a('\n').a(e)
+                        .reset()
+                    );
+                    System.exit(1);
+                    return;
+                }
+                if (result != null) {
+                    result.accept(writer);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(output))) {
+            writer.writeTo(os);
+        }
+
+        System.out.println("Indexed patch archive with " + writer.size() + " patches written to " + output);
+        if (skippedCount > 0) {
+            System.out.println(Ansi.ansi()
+                .fgBrightYellow()
+                .a(skippedCount).a(" new, removed or non-class entries are not stored in indexed archives")
+                .reset()
+            );
+        }
+    }
+
+    /**
+     * @return The contents to store in the patch archive for this entry, or {@code null} if the entry is unchanged. For
+     * {@code .class} files present in both jars, this is a class diff, which is written straight into the archive.
+     * Otherwise, it is the target entry verbatim.
+     */
+    private static EntryContents diffJarEntry(Options options, Path source, Path target) {
+        try {
+            final byte[] targetBytes = Files.readAllBytes(target);
+            if (source == null) {
+                return os -> os.write(targetBytes);
+            }
+            final byte[] sourceBytes = Files.readAllBytes(source);
+            if (Arrays.equals(sourceBytes, targetBytes)) {
+                return null;
+            }
+            if (!target.getFileName().toString().endsWith(".class")) {
+                return os -> os.write(targetBytes);
+            }
+
+            return diffClass(options, sourceBytes, targetBytes)::writeTo;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static DiffWriter diffClass(Options options, byte[] sourceBytes, byte[] targetBytes) {
+        final DiffWriter writer = new DiffWriter();
+        if (options.skipUnknownAttributes) {
+            ClassDiffer.diff(readClass(options, sourceBytes), readClass(options, targetBytes), writer);
+        } else {
+            ClassDiffer.diff(
+                new ClassReader(sourceBytes), new ClassReader(targetBytes), parsingOptions(options), writer
+            );
+        }
+        return writer;
+    }
+
+    private static Map<String, Path> listJarEntries(FileSystem jar) throws IOException {
+        return listJarEntries(jar.getPath("/"));
+    }
+
+    private static Map<String, Path> listJarEntries(Path root) throws IOException {
+        final Map<String, Path> result = new TreeMap<>();
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(Files::isRegularFile).forEach(path -> result.put(root.relativize(path).toString(), path));
+        }
+        return result;
+    }
+
     public static void apply(Options options) throws Exception {
-        final ClassNode clazz = readClass(options, options.source);
+        final byte[] source = Files.readAllBytes(options.source);
         final byte[] patch = Files.readAllBytes(options.patch);
 
-        final String originalClassName = clazz.name;
+        final String originalClassName = new ClassReader(source).getClassName();
         final int slashIndex = originalClassName.lastIndexOf('/');
         final String originalPackage = slashIndex > 0 ? originalClassName.substring(0, slashIndex) : "";
 
-        ClassPatcher.patch(clazz, new DiffReader(patch));
+        final byte[] patched = patchClass(options, openCache(options), source, patch);
+        final String className = new ClassReader(patched).getClassName();
 
         final Path output = options.getOutput(o -> {
             Path result = o.source.getParent();
@@ -198,14 +520,14 @@ public class ClassDiffCli {
                 if (!originalPackage.isEmpty()) {
                     result = unresolve(result, originalPackage);
                     result = result != null
-                        ? result.resolve(clazz.name + ".class")
-                        : o.source.getFileSystem().getPath(clazz.name + ".class");
+                        ? result.resolve(className + ".class")
+                        : o.source.getFileSystem().getPath(className + ".class");
                 }
                 if (!result.equals(o.source.toAbsolutePath()) && !result.getFileSystem().isReadOnly()) {
                     return result;
                 }
             }
-            final String targetName = clazz.name.substring(clazz.name.lastIndexOf('/') + 1) + ".class";
+            final String targetName = className.substring(className.lastIndexOf('/') + 1) + ".class";
             result = o.patch.getParent();
             if (result != null) {
                 return result.resolve(targetName);
@@ -213,10 +535,8 @@ public class ClassDiffCli {
             return o.patch.getFileSystem().getPath(targetName);
         });
 
-        final ClassWriter writer = new ClassWriter(0);
-        clazz.accept(writer);
         try {
-            Files.write(output, writer.toByteArray());
+            Files.write(output, patched);
         } catch (Exception e) {
             System.err.println(Ansi.ansi()
                 .fgBrightRed()
@@ -231,6 +551,194 @@ public class ClassDiffCli {
         tryClose(options.source, options.patch, output);
     }
 
+    public static void applyJar(Options options) throws Exception {
+        final Path output = options.getOutput(o -> {
+            final String sourceFilename = o.source.getFileName().toString();
+            final int dotIndex = sourceFilename.lastIndexOf('.');
+            final String strippedFilename = dotIndex >= 0 ? sourceFilename.substring(0, dotIndex) : sourceFilename;
+            return o.source.toAbsolutePath().getParent().resolve(strippedFilename + "-patched.jar");
+        });
+
+        try (FileSystem patchFs = FileSystems.newFileSystem(options.patch, (ClassLoader)null)) {
+            applyJar(options, patchFs.getPath("/"), output);
+        }
+        tryClose(options.source, options.patch, output);
+    }
+
+    private static void applyJar(Options options, Path patches, Path output) throws IOException {
+        final Set<String> removed = new HashSet<>();
+        final Path removedPath = patches.resolve(REMOVED_ENTRIES_NAME);
+        if (Files.isRegularFile(removedPath)) {
+            for (final String line : new String(Files.readAllBytes(removedPath), StandardCharsets.UTF_8).split("\n")) {
+                if (!line.isEmpty()) {
+                    removed.add(line);
+                }
+            }
+        }
+
+        final DiskPatchCache cache = openCache(options);
+        final int threads = Math.max(options.threads, 1);
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        // Entries are written in jar order as soon as they are done, with only a bounded number in flight
+        final Deque<Map.Entry<String, ForkJoinTask<byte[]>>> pending = new ArrayDeque<>();
+        final Set<String> seen = new HashSet<>();
+        int patchCount = 0;
+        int addedCount = 0;
+        try (
+            ZipInputStream zis = new ZipInputStream(Files.newInputStream(options.source));
+            ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))
+        ) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                final String name = entry.getName();
+                if (!seen.add(name) || removed.contains(name)) continue;
+                final byte[] contents = readAllBytes(zis);
+
+                final Path replacement = patches.resolve(FILES_PREFIX + name);
+                final Path patch = name.endsWith(".class") ? patches.resolve(patchEntryName(name)) : null;
+                final ForkJoinTask<byte[]> task;
+                if (Files.isRegularFile(replacement)) {
+                    task = pool.submit(() -> readEntry(replacement));
+                } else if (patch != null && Files.isRegularFile(patch)) {
+                    task = pool.submit(() -> patchClass(options, cache, contents, readEntry(patch)));
+                    patchCount++;
+                } else {
+                    task = ForkJoinTask.adapt(() -> contents);
+                    task.invoke();
+                }
+                pending.add(new AbstractMap.SimpleImmutableEntry<>(name, task));
+
+                while (!pending.isEmpty() && (pending.peek().getValue().isDone() || pending.size() > threads * 4)) {
+                    writeJarEntry(zos, pending.poll());
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeJarEntry(zos, pending.poll());
+            }
+
+            final Path files = patches.resolve(FILES_PREFIX);
+            if (Files.isDirectory(files)) {
+                for (final Map.Entry<String, Path> addedEntry : listJarEntries(files).entrySet()) {
+                    if (seen.contains(addedEntry.getKey())) continue;
+                    zos.putNextEntry(new ZipEntry(addedEntry.getKey()));
+                    Files.copy(addedEntry.getValue(), zos);
+                    zos.closeEntry();
+                    addedCount++;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.println(
+            "Patched jar with " + patchCount + " patched classes and " + addedCount + " new entries written to " + output
+        );
+    }
+
+    private static void writeJarEntry(
+        ZipOutputStream zos, Map.Entry<String, ForkJoinTask<byte[]>> task
+    ) throws IOException {
+        final byte[] result;
+        try {
+            result = task.getValue().join();
+        } catch (RuntimeException e) {
+            System.err.println(Ansi.ansi()
+                .fgBrightRed()
+                .a("Failed to patch ").a(task.getKey())
+                .a('\n').a(e)
+                .reset()
+            );
+            System.exit(1);
+            return;
+        }
+        zos.putNextEntry(new ZipEntry(task.getKey()));
+        zos.write(result);
+        zos.closeEntry();
+    }
+
+    private static String patchEntryName(String className) {
+        return PATCHES_PREFIX + className.substring(0, className.length() - 6) + ".cdiff";
+    }
+
+    /**
+     * @param cache The cache to look the result up in and store it to, or {@code null} to always patch
+     */
+    private static byte[] patchClass(Options options, DiskPatchCache cache, byte[] source, byte[] patch) {
+        if (cache != null) {
+            return cache.get(source, patch, cacheFlags(options), () -> patchClass(options, null, source, patch));
+        }
+        final DiffReader diff = new DiffReader(patch);
+        if (!options.skipUnknownAttributes && parsingOptions(options) == 0) {
+            if (diff.isUnchanged()) {
+                return source;
+            }
+            // Members the patch doesn't touch are copied without being parsed
+            final ClassReader reader = new ClassReader(source);
+            final ClassWriter writer = new ClassWriter(reader, 0);
+            ClassPatcher.patch(reader, diff, writer);
+            return writer.toByteArray();
+        }
+        final ClassNode clazz = readClass(options, source);
+        ClassPatcher.patch(clazz, diff);
+        final ClassWriter writer = new ClassWriter(0);
+        clazz.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static byte[] readEntry(Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] readAllBytes(InputStream is) throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    public static void compose(Options options) throws Exception {
+        final Path output = options.getOutput(o -> {
+            final String sourceFilename = o.source.getFileName().toString();
+            final int dotIndex = sourceFilename.lastIndexOf('.');
+            final String strippedFilename = dotIndex >= 0 ? sourceFilename.substring(0, dotIndex) : sourceFilename;
+            final Path last = o.patches.get(o.patches.size() - 1).toAbsolutePath();
+            return last.getParent().resolve(strippedFilename + "-composed.cdiff");
+        });
+
+        final List<DiffReader> patches = new ArrayList<>();
+        for (final Path patch : options.patches) {
+            patches.add(new DiffReader(Files.readAllBytes(patch)));
+        }
+        final byte[] source = Files.readAllBytes(options.source);
+
+        final DiffWriter writer = new DiffWriter();
+        PatchComposer.compose(new ClassReader(source), patches, parsingOptions(options), writer);
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(output))) {
+            writer.writeTo(os);
+        } catch (IOException e) {
+            System.err.println(Ansi.ansi()
+                .fgBrightRed()
+                .a("Failed to write to file ").a(output)
+                .a('\n').a(e)
+                .reset()
+            );
+            System.exit(1);
+        }
+
+        System.out.println("Composed patch written to " + output);
+        final List<Path> paths = new ArrayList<>(options.patches);
+        paths.add(options.source);
+        paths.add(output);
+        tryClose(paths.toArray(new Path[0]));
+    }
+
     public static void printClass(Options options) throws Exception {
         System.out.println(classNodeToString(readClass(options, options.clazz), options));
     }
@@ -336,14 +844,16 @@ public class ClassDiffCli {
         try (InputStream is = Files.newInputStream(path)) {
             reader = new ClassReader(is);
         }
+        return readClass(options, reader);
+    }
 
-        int parsingOptions = 0;
-        if (options.skipDebug) {
-            parsingOptions |= ClassReader.SKIP_DEBUG;
-        }
+    private static ClassNode readClass(Options options, byte[] bytes) {
+        return readClass(options, new ClassReader(bytes));
+    }
 
+    private static ClassNode readClass(Options options, ClassReader reader) {
         final ClassNode result = new ClassNode();
-        reader.accept(result, parsingOptions);
+        reader.accept(result, parsingOptions(options));
 
         if (options.skipUnknownAttributes) {
             stripUnknownAttrs(result);
@@ -351,6 +861,28 @@ public class ClassDiffCli {
         return result;
     }
 
+    private static DiskPatchCache openCache(Options options) throws IOException {
+        if (options.cache == null) {
+            return null;
+        }
+        return new DiskPatchCache(options.cache, options.cacheSize << 20);
+    }
+
+    /**
+     * @return The options that change how a class is patched, to key the cache with
+     */
+    private static int cacheFlags(Options options) {
+        return parsingOptions(options) | (options.skipUnknownAttributes ? 1 << 16 : 0);
+    }
+
+    private static int parsingOptions(Options options) {
+        int result = 0;
+        if (options.skipDebug) {
+            result |= ClassReader.SKIP_DEBUG;
+        }
+        return result;
+    }
+
     private static void stripUnknownAttrs(ClassNode node) {
         node.attrs = stripUnknownAttrs(node.attrs);
         for (final RecordComponentNode recordComponent : Util.nullToEmpty(node.recordComponents)) {
@@ -371,4 +903,8 @@ public class ClassDiffCli {
         attrs.removeIf(a -> a.getClass() == Attribute.class);
         return !attrs.isEmpty() ? attrs : null;
     }
+
+    private interface EntryContents {
+        void writeTo(OutputStream os) throws IOException;
+    }
 }
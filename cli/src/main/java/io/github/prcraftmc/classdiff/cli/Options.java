@@ -5,6 +5,7 @@ import org.fusesource.jansi.Ansi;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.function.Function;
 
 public class Options {
@@ -29,12 +30,27 @@ public class Options {
     @Arg
     public Path patch;
 
+    @Arg
+    public List<Path> patches;
+
     @Arg(dest = "code_form")
     public boolean codeForm;
 
     @Arg(dest = "class")
     public Path clazz;
 
+    @Arg
+    public int threads;
+
+    @Arg
+    public boolean indexed;
+
+    @Arg
+    public Path cache;
+
+    @Arg(dest = "cache_size")
+    public long cacheSize;
+
     public Path getOutput(Function<Options, Path> defaultResolve) {
         Path output = this.output;
         if (output == null) {
@@ -57,7 +73,10 @@ public class Options {
 
     public enum Action {
         DIFF,
+        DIFF_JAR,
         APPLY,
+        APPLY_JAR,
+        COMPOSE,
         PRINT_CLASS,
         PRINT_CHANGES,
         TEST,
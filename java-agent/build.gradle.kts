@@ -0,0 +1,55 @@
+plugins {
+    java
+    id("com.github.johnrengelman.shadow") version "8.1.1"
+}
+
+group = "io.github.prcraftmc"
+version = "1.0-SNAPSHOT"
+
+java.sourceCompatibility = JavaVersion.VERSION_1_8
+java.targetCompatibility = JavaVersion.VERSION_1_8
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    implementation(project(":"))
+    compileOnly("org.jetbrains:annotations:24.0.1")
+
+    testImplementation(platform("org.junit:junit-bom:5.9.1"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+}
+
+tasks.jar {
+    manifest {
+        attributes["Premain-Class"] = "io.github.prcraftmc.classdiff.agent.ClassDiffAgent"
+        attributes["Agent-Class"] = "io.github.prcraftmc.classdiff.agent.ClassDiffAgent"
+    }
+}
+
+tasks.shadowJar {
+    mergeServiceFiles()
+}
+
+tasks.compileJava {
+    options.encoding = "UTF-8"
+    sourceCompatibility = "1.8"
+    targetCompatibility = "1.8"
+    if (JavaVersion.current().isJava9Compatible) {
+        options.release.set(8)
+    }
+}
+
+tasks.compileTestJava {
+    options.encoding = "UTF-8"
+    sourceCompatibility = "17"
+    targetCompatibility = "17"
+    if (JavaVersion.current().isJava9Compatible) {
+        options.release.set(17)
+    }
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
@@ -0,0 +1,30 @@
+package io.github.prcraftmc.classdiff.agent;
+
+import io.github.prcraftmc.classdiff.format.PatchArchive;
+
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Paths;
+
+/**
+ * Patches classes as they are loaded, from an indexed patch archive written by {@code diff-jar --indexed}. The path of
+ * the archive is the agent argument, as in {@code -javaagent:java-agent.jar=patches.cdiffidx}.
+ * <p>
+ * When attached to a running JVM, only classes loaded afterward are patched.
+ */
+public class ClassDiffAgent {
+    public static void premain(String args, Instrumentation instrumentation) throws IOException {
+        install(args, instrumentation);
+    }
+
+    public static void agentmain(String args, Instrumentation instrumentation) throws IOException {
+        install(args, instrumentation);
+    }
+
+    private static void install(String args, Instrumentation instrumentation) throws IOException {
+        if (args == null || args.isEmpty()) {
+            throw new IllegalArgumentException("Missing patch archive. Usage: -javaagent:<agent jar>=<patch archive>");
+        }
+        instrumentation.addTransformer(new PatchingTransformer(PatchArchive.open(Paths.get(args))));
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.prcraftmc.classdiff.agent;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of patched class bytes, bounded by their total size. One cache may be shared by any
+ * number of {@link PatchingClassLoader}s, as long as they all use the same base jar and patch archive, so that a class
+ * is only patched once however many times it's loaded.
+ * <p>
+ * The bytes can be kept off-heap in direct buffers, which are passed straight to
+ * {@link ClassLoader#defineClass(String, ByteBuffer, java.security.ProtectionDomain)}.
+ */
+public class PatchedClassCache {
+    private final Map<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxSize;
+    private final boolean offHeap;
+    private long size;
+
+    /**
+     * @param maxSize The maximum total size of the cached classes, in bytes
+     * @param offHeap Whether to keep the classes in direct buffers, outside of the Java heap
+     */
+    public PatchedClassCache(long maxSize, boolean offHeap) {
+        this.maxSize = maxSize;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param className The internal name of the class
+     * @return The cached bytes of the class, as a new buffer that the caller may consume, or {@code null} if it isn't
+     *         cached
+     */
+    @Nullable
+    public synchronized ByteBuffer get(String className) {
+        final ByteBuffer result = entries.get(className);
+        return result != null ? result.duplicate() : null;
+    }
+
+    /**
+     * Caches {@code contents} as the bytes of {@code className}, evicting the least recently used classes to make room.
+     * Classes larger than the whole cache are not cached, and replace any bytes already cached for them.
+     *
+     * @return The bytes of the class, as a new buffer that the caller may consume
+     */
+    public synchronized ByteBuffer put(String className, byte[] contents) {
+        final ByteBuffer buffer;
+        if (offHeap) {
+            buffer = ByteBuffer.allocateDirect(contents.length);
+            buffer.put(contents).flip();
+        } else {
+            buffer = ByteBuffer.wrap(contents);
+        }
+        if (contents.length > maxSize) {
+            // Don't leave an older version of the class cached in its place
+            final ByteBuffer previous = entries.remove(className);
+            if (previous != null) {
+                size -= previous.remaining();
+            }
+            return buffer;
+        }
+
+        final ByteBuffer previous = entries.put(className, buffer);
+        size += contents.length;
+        if (previous != null) {
+            size -= previous.remaining();
+        }
+        final Iterator<ByteBuffer> it = entries.values().iterator();
+        while (size > maxSize) {
+            size -= it.next().remaining();
+            it.remove();
+        }
+        return buffer.duplicate();
+    }
+
+    /**
+     * @return The total size of the cached classes, in bytes
+     */
+    public synchronized long size() {
+        return size;
+    }
+}
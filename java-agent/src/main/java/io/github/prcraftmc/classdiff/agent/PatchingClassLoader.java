@@ -0,0 +1,119 @@
+package io.github.prcraftmc.classdiff.agent;
+
+import io.github.prcraftmc.classdiff.format.PatchArchive;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Loads classes from a base jar, applying the patches from a {@link PatchArchive} the first time each class is found.
+ * This serves the patched classes without writing a patched jar to disk. The patched bytes are kept in a
+ * {@link PatchedClassCache}, which can be shared with other loaders of the same jar and archive.
+ * <p>
+ * Classes are looked up in the parent loader first, so the base jar must not also be on the parent's class path.
+ * Resources, including {@code .class} files, are served from the base jar unpatched.
+ */
+public class PatchingClassLoader extends ClassLoader implements Closeable {
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final ZipFile jar;
+    private final URL jarUrl;
+    private final PatchArchive archive;
+    private final PatchedClassCache cache;
+    private final ProtectionDomain protectionDomain;
+
+    public PatchingClassLoader(
+        Path jar, PatchArchive archive, PatchedClassCache cache, @Nullable ClassLoader parent
+    ) throws IOException {
+        super(parent);
+        this.jar = new ZipFile(jar.toFile());
+        this.jarUrl = jar.toUri().toURL();
+        this.archive = archive;
+        this.cache = cache;
+        this.protectionDomain = new ProtectionDomain(new CodeSource(jarUrl, (Certificate[])null), null, this, null);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        final String className = name.replace('.', '/');
+        ByteBuffer contents = cache.get(className);
+        if (contents == null) {
+            final byte[] original;
+            try {
+                original = readEntry(className + ".class");
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+            if (original == null) {
+                throw new ClassNotFoundException(name);
+            }
+            final byte[] patched = PatchingTransformer.patch(archive, className, original);
+            contents = patched != null ? cache.put(className, patched) : ByteBuffer.wrap(original);
+        }
+
+        final int packageEnd = name.lastIndexOf('.');
+        if (packageEnd > 0) {
+            definePackageIfAbsent(name.substring(0, packageEnd));
+        }
+        return defineClass(name, contents, protectionDomain);
+    }
+
+    @Nullable
+    @Override
+    protected URL findResource(String name) {
+        if (jar.getEntry(name) == null) {
+            return null;
+        }
+        try {
+            return new URL("jar:" + jarUrl + "!/" + name);
+        } catch (MalformedURLException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        jar.close();
+    }
+
+    private byte @Nullable [] readEntry(String name) throws IOException {
+        final ZipEntry entry = jar.getEntry(name);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream is = jar.getInputStream(entry)) {
+            final ByteArrayOutputStream result = new ByteArrayOutputStream(Math.max((int)entry.getSize(), 32));
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                result.write(buffer, 0, n);
+            }
+            return result.toByteArray();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void definePackageIfAbsent(String name) {
+        if (getPackage(name) != null) return;
+        try {
+            definePackage(name, null, null, null, null, null, null, null);
+        } catch (IllegalArgumentException ignored) {
+            // Defined concurrently by another thread
+        }
+    }
+}
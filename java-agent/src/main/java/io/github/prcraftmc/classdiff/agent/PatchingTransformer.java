@@ -0,0 +1,72 @@
+package io.github.prcraftmc.classdiff.agent;
+
+import io.github.prcraftmc.classdiff.ClassPatcher;
+import io.github.prcraftmc.classdiff.format.DiffReader;
+import io.github.prcraftmc.classdiff.format.PatchArchive;
+import io.github.prcraftmc.classdiff.util.Util;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+
+/**
+ * Applies the patches in a {@link PatchArchive} to classes as they are defined. Classes without a patch are left alone
+ * after a single index lookup, and only the members a patch touches are parsed.
+ * <p>
+ * A patch is only applied if the class's bytes match the checksum of the class the patch was made from. Otherwise, or
+ * if patching fails, the error is printed and the class is loaded unpatched.
+ */
+public class PatchingTransformer implements ClassFileTransformer {
+    private final PatchArchive archive;
+
+    public PatchingTransformer(PatchArchive archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public byte @Nullable [] transform(
+        ClassLoader loader,
+        String className,
+        Class<?> classBeingRedefined,
+        ProtectionDomain protectionDomain,
+        byte[] classfileBuffer
+    ) {
+        if (className == null || classBeingRedefined != null) {
+            return null;
+        }
+        return patch(archive, className, classfileBuffer);
+    }
+
+    /**
+     * @return The patched class, or {@code null} if {@code archive} has no patch for it or it couldn't be patched
+     */
+    static byte @Nullable [] patch(PatchArchive archive, String className, byte[] original) {
+        final int index = archive.indexOf(className);
+        if (index == -1) {
+            return null;
+        }
+        try {
+            if (archive.getSourceChecksum(index) != Util.hash64(original)) {
+                System.err.println(
+                    "[class-diff] Not patching " + className + ", as it differs from the class its patch was made from"
+                );
+                return null;
+            }
+            final DiffReader patch = new DiffReader(archive.getPatch(index));
+            if (patch.isUnchanged()) {
+                return null;
+            }
+            final ClassReader reader = new ClassReader(original);
+            final ClassWriter writer = new ClassWriter(reader, 0);
+            ClassPatcher.patch(reader, patch, writer);
+            return writer.toByteArray();
+        } catch (RuntimeException e) {
+            // Exceptions thrown from a transformer are silently ignored by the JVM
+            System.err.println("[class-diff] Failed to patch " + className);
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.prcraftmc.classdiff.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PatchedClassCacheTest {
+    @Test
+    public void testEvictionOrder() {
+        final PatchedClassCache cache = new PatchedClassCache(30, false);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        cache.put("c", new byte[10]);
+        // Using a makes b the least recently used
+        assertNotNull(cache.get("a"));
+        cache.put("d", new byte[10]);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(30, cache.size());
+    }
+
+    @Test
+    public void testReplace() {
+        final PatchedClassCache cache = new PatchedClassCache(30, false);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        cache.put("a", new byte[15]);
+        assertEquals(25, cache.size());
+        assertEquals(15, cache.get("a").remaining());
+
+        // Too large to cache, so the old bytes have to go too
+        final ByteBuffer result = cache.put("a", new byte[40]);
+        assertEquals(40, result.remaining());
+        assertNull(cache.get("a"));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testOffHeap() {
+        final PatchedClassCache cache = new PatchedClassCache(30, true);
+        final ByteBuffer result = cache.put("a", new byte[] {1, 2, 3});
+        assertEquals(3, result.remaining());
+        result.get();
+
+        // Consuming one buffer doesn't consume the cached bytes
+        final ByteBuffer cached = cache.get("a");
+        assertNotNull(cached);
+        assertEquals(3, cached.remaining());
+        assertEquals(3, cache.size());
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.prcraftmc.classdiff.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static io.github.prcraftmc.classdiff.agent.PatchingTransformerTest.CLASS_NAME;
+import static io.github.prcraftmc.classdiff.agent.PatchingTransformerTest.archive;
+import static io.github.prcraftmc.classdiff.agent.PatchingTransformerTest.greet;
+import static io.github.prcraftmc.classdiff.agent.PatchingTransformerTest.greeter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PatchingClassLoaderTest {
+    @Test
+    public void testFindClass(@TempDir Path tempDir) throws IOException, ReflectiveOperationException {
+        final Path jar = tempDir.resolve("base.jar");
+        try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(jar))) {
+            output.putNextEntry(new ZipEntry(CLASS_NAME + ".class"));
+            output.write(greeter("hello"));
+            output.closeEntry();
+        }
+
+        final PatchedClassCache cache = new PatchedClassCache(1 << 16, false);
+        try (PatchingClassLoader loader = new PatchingClassLoader(
+            jar, archive(CLASS_NAME, greeter("hello"), greeter("goodbye")), cache, null
+        )) {
+            assertEquals("goodbye", greet(loader.loadClass(CLASS_NAME.replace('/', '.'))));
+            assertNotNull(cache.get(CLASS_NAME));
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass("example.Missing"));
+        }
+
+        // A second loader is served from the cache, even though its jar doesn't have the class
+        final Path emptyJar = tempDir.resolve("empty.jar");
+        try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(emptyJar))) {
+            output.putNextEntry(new ZipEntry("empty.txt"));
+            output.closeEntry();
+        }
+        try (PatchingClassLoader loader = new PatchingClassLoader(
+            emptyJar, archive(CLASS_NAME, greeter("hello"), greeter("goodbye")), cache, null
+        )) {
+            assertEquals("goodbye", greet(loader.loadClass(CLASS_NAME.replace('/', '.'))));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.prcraftmc.classdiff.agent;
+
+import io.github.prcraftmc.classdiff.ClassDiffer;
+import io.github.prcraftmc.classdiff.format.DiffConstants;
+import io.github.prcraftmc.classdiff.format.DiffWriter;
+import io.github.prcraftmc.classdiff.format.PatchArchive;
+import io.github.prcraftmc.classdiff.format.PatchArchiveWriter;
+import io.github.prcraftmc.classdiff.util.Util;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PatchingTransformerTest {
+    static final String CLASS_NAME = "example/Greeter";
+
+    @Test
+    public void testNoEntry() {
+        final PatchArchive archive = archive(CLASS_NAME, greeter("hello"), greeter("goodbye"));
+        assertNull(PatchingTransformer.patch(archive, "example/Other", greeter("hello")));
+    }
+
+    @Test
+    public void testChecksumMismatch() {
+        final PatchArchive archive = archive(CLASS_NAME, greeter("hello"), greeter("goodbye"));
+        assertNull(PatchingTransformer.patch(archive, CLASS_NAME, greeter("hi")));
+    }
+
+    @Test
+    public void testUnchanged() {
+        final byte[] original = greeter("hello");
+        final DiffWriter patch = new DiffWriter();
+        patch.visitUnchanged(DiffConstants.V_MAX);
+        final PatchArchiveWriter writer = new PatchArchiveWriter();
+        writer.add(CLASS_NAME, Util.hash64(original), patch);
+        final PatchArchive archive = new PatchArchive(ByteBuffer.wrap(writer.toByteArray()));
+
+        assertNull(PatchingTransformer.patch(archive, CLASS_NAME, original));
+    }
+
+    @Test
+    public void testPatch() throws ReflectiveOperationException {
+        final byte[] original = greeter("hello");
+        final PatchArchive archive = archive(CLASS_NAME, original, greeter("goodbye"));
+
+        final byte[] patched = PatchingTransformer.patch(archive, CLASS_NAME, original);
+        assertNotNull(patched);
+        assertEquals("goodbye", greet(new DefiningClassLoader().define(patched)));
+    }
+
+    /**
+     * @return A class named {@link #CLASS_NAME} with a static {@code greet()} method that returns {@code greeting}
+     */
+    static byte[] greeter(String greeting) {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+        final MethodVisitor method = writer.visitMethod(
+            Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "greet", "()Ljava/lang/String;", null, null
+        );
+        method.visitCode();
+        method.visitLdcInsn(greeting);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    static PatchArchive archive(String className, byte[] original, byte[] modified) {
+        final DiffWriter patch = new DiffWriter();
+        ClassDiffer.diff(new ClassReader(original), new ClassReader(modified), patch);
+        final PatchArchiveWriter writer = new PatchArchiveWriter();
+        writer.add(className, Util.hash64(original), patch);
+        return new PatchArchive(ByteBuffer.wrap(writer.toByteArray()));
+    }
+
+    static String greet(Class<?> greeter) throws ReflectiveOperationException {
+        return (String)greeter.getMethod("greet").invoke(null);
+    }
+
+    private static final class DefiningClassLoader extends ClassLoader {
+        DefiningClassLoader() {
+            super(null);
+        }
+
+        Class<?> define(byte[] contents) {
+            return defineClass(null, contents, 0, contents.length);
+        }
+    }
+}
@@ -1,2 +1,4 @@
 rootProject.name = "class-diff"
 include("cli")
+include("benchmarks")
+include("java-agent")
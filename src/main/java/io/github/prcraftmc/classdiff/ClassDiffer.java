@@ -1,40 +1,185 @@
 package io.github.prcraftmc.classdiff;
 
 import com.github.difflib.DiffUtils;
+import com.github.difflib.algorithm.DiffAlgorithmFactory;
 import com.github.difflib.patch.Patch;
 import com.nothome.delta.Delta;
 import io.github.prcraftmc.classdiff.format.*;
 import io.github.prcraftmc.classdiff.util.Util;
 import io.github.prcraftmc.classdiff.util.*;
-import org.objectweb.asm.Attribute;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.Type;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiPredicate;
 
 public class ClassDiffer {
     private final Delta delta = new Delta();
     private final DiffVisitor output;
+    private final DiffAlgorithmFactory insnDiffAlgorithm;
+    @Nullable
+    private final ForkJoinPool methodPool;
 
     public ClassDiffer(DiffVisitor output) {
+        this(output, null);
+    }
+
+    /**
+     * @param insnDiffAlgorithm The algorithm used to diff instruction lists. If {@code null}, a {@link LinearSpaceDiff}
+     *                          over label-normalized instruction hashes is used, as the default Myers implementation
+     *                          needs quadratic memory on very large methods.
+     */
+    public ClassDiffer(DiffVisitor output, @Nullable DiffAlgorithmFactory insnDiffAlgorithm) {
+        this(output, insnDiffAlgorithm, null);
+    }
+
+    /**
+     * @param methodPool If not {@code null}, methods present in both classes are diffed concurrently on this pool. The
+     *                   results are still visited on the calling thread and in the same order, so the output is the
+     *                   same as without a pool.
+     * @see #ClassDiffer(DiffVisitor, DiffAlgorithmFactory)
+     */
+    public ClassDiffer(
+        DiffVisitor output, @Nullable DiffAlgorithmFactory insnDiffAlgorithm, @Nullable ForkJoinPool methodPool
+    ) {
         this.output = output;
+        this.insnDiffAlgorithm = insnDiffAlgorithm;
+        this.methodPool = methodPool;
     }
 
     public static void diff(ClassNode original, ClassNode modified, DiffVisitor result) {
         new ClassDiffer(result).accept(original, modified);
     }
 
+    /**
+     * Diffs two classes straight from their bytes. The methods are first compared without building a tree, and
+     * methods that are the same in both classes are left empty in the {@link ClassNode}s, so most of the work only
+     * scales with the methods that changed. Classes with identical bytes aren't compared at all, and give a diff that
+     * only marks the class as {@linkplain DiffReader#isUnchanged unchanged}.
+     */
     public static void diff(ClassReader original, ClassReader modified, DiffVisitor result) {
+        diff(original, modified, 0, result);
+    }
+
+    /**
+     * @param parsingOptions The options passed to {@link ClassReader#accept(ClassVisitor, int)}
+     * @see #diff(ClassReader, ClassReader, DiffVisitor)
+     */
+    public static void diff(ClassReader original, ClassReader modified, int parsingOptions, DiffVisitor result) {
+        if (sameClassFile(original, modified)) {
+            result.visitUnchanged(DiffConstants.V_MAX);
+            return;
+        }
+
+        final Map<MemberName, byte[]> originalMethods = readCanonicalMethods(original, parsingOptions);
+        final Map<MemberName, byte[]> modifiedMethods = readCanonicalMethods(modified, parsingOptions);
+        final Set<MemberName> unchangedMethods = new HashSet<>();
+        for (final Map.Entry<MemberName, byte[]> entry : originalMethods.entrySet()) {
+            if (Arrays.equals(entry.getValue(), modifiedMethods.get(entry.getKey()))) {
+                unchangedMethods.add(entry.getKey());
+            }
+        }
+
         final ClassNode aNode = new ClassNode();
-        original.accept(aNode, 0);
+        original.accept(skipMethods(aNode, unchangedMethods), parsingOptions);
         final ClassNode bNode = new ClassNode();
-        modified.accept(bNode, 0);
+        modified.accept(skipMethods(bNode, unchangedMethods), parsingOptions);
         diff(aNode, bNode, result);
     }
 
+    /**
+     * Compares the class file bytes of two readers, which may each only cover part of their buffer.
+     */
+    private static boolean sameClassFile(ClassReader a, ClassReader b) {
+        // The first constant starts right after the magic, version and constant count
+        final int aStart = a.getItem(1) - 11;
+        final int bStart = b.getItem(1) - 11;
+        final int length = classFileEnd(a) - aStart;
+        if (classFileEnd(b) - bStart != length) {
+            return false;
+        }
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            if (a.readLong(aStart + i) != b.readLong(bStart + i)) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (a.readByte(aStart + i) != b.readByte(bStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int classFileEnd(ClassReader reader) {
+        int offset = reader.header + 6;
+        offset += 2 + 2 * reader.readUnsignedShort(offset);
+        for (int memberKind = 0; memberKind < 2; memberKind++) {
+            int memberCount = reader.readUnsignedShort(offset);
+            offset += 2;
+            while (memberCount-- > 0) {
+                offset = skipAttributes(reader, offset + 6);
+            }
+        }
+        return skipAttributes(reader, offset);
+    }
+
+    private static int skipAttributes(ClassReader reader, int offset) {
+        int attributeCount = reader.readUnsignedShort(offset);
+        offset += 2;
+        while (attributeCount-- > 0) {
+            offset += 6 + reader.readInt(offset + 2);
+        }
+        return offset;
+    }
+
+    /**
+     * @return The {@link CanonicalMethodWriter} output of each method, except for the opaque ones.
+     */
+    private static Map<MemberName, byte[]> readCanonicalMethods(ClassReader reader, int parsingOptions) {
+        final Map<MemberName, CanonicalMethodWriter> writers = new HashMap<>();
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(
+                int access, String name, String descriptor, String signature, String[] exceptions
+            ) {
+                final CanonicalMethodWriter writer = new CanonicalMethodWriter(
+                    access, name, descriptor, signature, exceptions
+                );
+                writers.put(new MemberName(name, descriptor), writer);
+                return writer;
+            }
+        }, parsingOptions);
+        final Map<MemberName, byte[]> result = new HashMap<>();
+        for (final Map.Entry<MemberName, CanonicalMethodWriter> entry : writers.entrySet()) {
+            if (!entry.getValue().isOpaque()) {
+                result.put(entry.getKey(), entry.getValue().toByteArray());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Keeps only the header of the given methods, which is enough for them to compare equal.
+     */
+    private static ClassVisitor skipMethods(ClassNode node, Set<MemberName> methods) {
+        return new ClassVisitor(Opcodes.ASM9, node) {
+            @Override
+            public MethodVisitor visitMethod(
+                int access, String name, String descriptor, String signature, String[] exceptions
+            ) {
+                final MethodVisitor visitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                return methods.contains(new MemberName(name, descriptor)) ? null : visitor;
+            }
+        };
+    }
+
     public void accept(ClassNode original, ClassNode modified) {
         final Patch<String> interfacePatch;
         if (Objects.equals(original.interfaces, modified.interfaces)) {
@@ -47,7 +192,7 @@ public class ClassDiffer {
         }
 
         output.visit(
-            DiffConstants.V1,
+            DiffConstants.V_MAX,
             modified.version == original.version ? -1 : modified.version,
             modified.access == original.access ? -1 : modified.access,
             modified.name.equals(original.name) ? null : modified.name,
@@ -380,16 +525,23 @@ public class ClassDiffer {
             }
 
             final Set<MemberName> extra = new LinkedHashSet<>(bMap.keySet());
+            final List<MethodNode> aMatched = new ArrayList<>();
+            final List<MethodNode> bMatched = new ArrayList<>();
             for (int i = 0; i < aMethods.size(); i++) {
                 final MemberName name = aMethods.get(i);
                 if (extra.remove(name)) {
-                    final MethodNode aNode = original.methods.get(i);
-                    final MethodNode bNode = bMap.get(name);
+                    aMatched.add(original.methods.get(i));
+                    bMatched.add(bMap.get(name));
+                }
+            }
+            if (methodPool != null && aMatched.size() > 1) {
+                diffMethodsConcurrently(aMatched, bMatched, methodPool);
+            } else {
+                for (int i = 0; i < aMatched.size(); i++) {
+                    final MethodNode aNode = aMatched.get(i);
+                    final MethodNode bNode = bMatched.get(i);
                     if (!Equalizers.method(aNode, bNode)) {
-                        final MethodDiffVisitor visitor = output.visitMethod(
-                            bNode.access, name.name, name.descriptor, bNode.signature,
-                            DiffUtils.diff(aNode.exceptions, bNode.exceptions)
-                        );
+                        final MethodDiffVisitor visitor = visitMethod(aNode, bNode);
                         if (visitor != null) {
                             diffMethods(aNode, bNode, visitor);
                         }
@@ -466,10 +618,8 @@ public class ClassDiffer {
                     }
                     final LabelMap labelMap = new LabelMap(node.instructions);
                     if (node.instructions.size() > 0) {
-                        visitor.visitInsns(0, DiffUtils.diff(
-                            Collections.emptyList(),
-                            new InsnListAdapter(node.instructions),
-                            Equalizers.insnEqualizer(LabelMap.EMPTY, labelMap)
+                        visitor.visitInsns(0, diffInsns(
+                            new InsnList(), node.instructions, LabelMap.EMPTY, labelMap
                         ), () -> labelMap);
                     }
                     if (!Util.isNullOrEmpty(node.localVariables)) {
@@ -492,6 +642,40 @@ public class ClassDiffer {
         }
     }
 
+    @Nullable
+    private MethodDiffVisitor visitMethod(MethodNode original, MethodNode modified) {
+        return output.visitMethod(
+            modified.access, modified.name, modified.desc, modified.signature,
+            DiffUtils.diff(original.exceptions, modified.exceptions)
+        );
+    }
+
+    private void diffMethodsConcurrently(List<MethodNode> original, List<MethodNode> modified, ForkJoinPool pool) {
+        final List<ForkJoinTask<BufferingMethodDiffVisitor>> tasks = new ArrayList<>(original.size());
+        for (int i = 0; i < original.size(); i++) {
+            final MethodNode aNode = original.get(i);
+            final MethodNode bNode = modified.get(i);
+            tasks.add(pool.submit(() -> {
+                if (Equalizers.method(aNode, bNode)) {
+                    return null;
+                }
+                // Each task needs its own Delta, so it gets its own differ
+                final BufferingMethodDiffVisitor buffer = new BufferingMethodDiffVisitor();
+                new ClassDiffer(output, insnDiffAlgorithm).diffMethods(aNode, bNode, buffer);
+                return buffer;
+            }));
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            final BufferingMethodDiffVisitor buffer = tasks.get(i).join();
+            if (buffer != null) {
+                final MethodDiffVisitor visitor = visitMethod(original.get(i), modified.get(i));
+                if (visitor != null) {
+                    buffer.replay(visitor);
+                }
+            }
+        }
+    }
+
     private void diffMethods(
         MethodNode original,
         MethodNode modified,
@@ -566,10 +750,8 @@ public class ClassDiffer {
 
         final boolean insnsEquals = Equalizers.insnList(original.instructions, modified.instructions, originalMap, modifiedMap);
         if (!insnsEquals) {
-            output.visitInsns(original.instructions.size(), DiffUtils.diff(
-                new InsnListAdapter(original.instructions),
-                new InsnListAdapter(modified.instructions),
-                Equalizers.insnEqualizer(originalMap, modifiedMap)
+            output.visitInsns(original.instructions.size(), diffInsns(
+                original.instructions, modified.instructions, originalMap, modifiedMap
             ), () -> modifiedMap);
         }
 
@@ -643,6 +825,22 @@ public class ClassDiffer {
         }
     }
 
+    private Patch<AbstractInsnNode> diffInsns(InsnList original, InsnList modified, LabelMap originalMap, LabelMap modifiedMap) {
+        final BiPredicate<AbstractInsnNode, AbstractInsnNode> equalizer = Equalizers.insnEqualizer(originalMap, modifiedMap);
+        return DiffUtils.diff(
+            new InsnListSnapshot(original),
+            new InsnListSnapshot(modified),
+            insnDiffAlgorithm != null
+                ? insnDiffAlgorithm.create(equalizer)
+                : new LinearSpaceDiff<>(
+                    equalizer,
+                    insn -> Equalizers.insnHash(insn, originalMap),
+                    insn -> Equalizers.insnHash(insn, modifiedMap)
+                ),
+            null
+        );
+    }
+
     private void diffAnnotated(
         AnnotatedElementVisitor output,
         List<AnnotationNode> originalVisibleAnnotations, List<AnnotationNode> modifiedVisibleAnnotations,
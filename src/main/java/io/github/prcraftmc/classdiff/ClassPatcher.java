@@ -7,9 +7,7 @@ import io.github.prcraftmc.classdiff.format.*;
 import io.github.prcraftmc.classdiff.util.Util;
 import io.github.prcraftmc.classdiff.util.*;
 import org.jetbrains.annotations.Nullable;
-import org.objectweb.asm.Attribute;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
 
 import java.io.IOException;
@@ -31,14 +29,61 @@ public class ClassPatcher extends DiffVisitor {
     }
 
     public static void patch(ClassNode node, DiffReader patch) {
+        if (patch.isUnchanged()) return;
         patch.accept(new ClassPatcher(node), node);
     }
 
+    /**
+     * Patches a class straight from a {@link ClassReader}. Only the fields and methods that the patch touches are
+     * read into tree nodes. All other members are passed from {@code reader} to {@code output} as they are, so if
+     * {@code output} is a {@link org.objectweb.asm.ClassWriter} created with {@code reader}, their bytes are copied
+     * without being parsed.
+     */
     public static void patch(ClassReader reader, DiffReader patch, ClassVisitor output) {
-        final ClassNode node = new ClassNode();
+        if (patch.isUnchanged()) {
+            reader.accept(output, 0);
+            return;
+        }
+        patch(reader, patch, patch.getPatchedFields(), patch.getPatchedMethods(), output);
+    }
+
+    static void patch(
+        ClassReader reader,
+        DiffReader patch,
+        Set<MemberName> patchedFields,
+        Set<MemberName> patchedMethods,
+        ClassVisitor output
+    ) {
+        final Set<Object> untouched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        final ClassNode node = new ClassNode(Opcodes.ASM9) {
+            @Override
+            public FieldVisitor visitField(
+                int access, String name, String descriptor, String signature, Object value
+            ) {
+                final FieldVisitor result = super.visitField(access, name, descriptor, signature, value);
+                if (patchedFields.contains(new MemberName(name, descriptor))) {
+                    return result;
+                }
+                untouched.add(result);
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(
+                int access, String name, String descriptor, String signature, String[] exceptions
+            ) {
+                final MethodVisitor result = super.visitMethod(access, name, descriptor, signature, exceptions);
+                if (patchedMethods.contains(new MemberName(name, descriptor))) {
+                    return result;
+                }
+                untouched.add(result);
+                return null;
+            }
+        };
         reader.accept(node, 0);
         patch(node, patch);
-        node.accept(output);
+        reader.accept(new PassThroughAdapter(output, node, untouched), 0);
     }
 
     @Override
@@ -71,7 +116,7 @@ public class ClassPatcher extends DiffVisitor {
                 node.interfaces = Collections.emptyList();
             }
             try {
-                node.interfaces = interfaces.applyTo(node.interfaces);
+                node.interfaces = Util.applyPatch(interfaces, node.interfaces);
             } catch (PatchFailedException e) {
                 throw new UncheckedPatchFailure(e);
             }
@@ -94,7 +139,7 @@ public class ClassPatcher extends DiffVisitor {
             node.innerClasses = Collections.emptyList();
         }
         try {
-            node.innerClasses = patch.applyTo(node.innerClasses);
+            node.innerClasses = Util.applyPatch(patch, node.innerClasses);
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
         }
@@ -124,7 +169,7 @@ public class ClassPatcher extends DiffVisitor {
             node.nestMembers = Collections.emptyList();
         }
         try {
-            node.nestMembers = patch.applyTo(node.nestMembers);
+            node.nestMembers = Util.applyPatch(patch, node.nestMembers);
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
         }
@@ -136,7 +181,7 @@ public class ClassPatcher extends DiffVisitor {
             node.permittedSubclasses = Collections.emptyList();
         }
         try {
-            node.permittedSubclasses = patch.applyTo(node.permittedSubclasses);
+            node.permittedSubclasses = Util.applyPatch(patch, node.permittedSubclasses);
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
         }
@@ -149,12 +194,12 @@ public class ClassPatcher extends DiffVisitor {
                 if (node.visibleAnnotations == null) {
                     node.visibleAnnotations = Collections.emptyList();
                 }
-                node.visibleAnnotations = patch.applyTo(node.visibleAnnotations);
+                node.visibleAnnotations = Util.applyPatch(patch, node.visibleAnnotations);
             } else {
                 if (node.invisibleAnnotations == null) {
                     node.invisibleAnnotations = Collections.emptyList();
                 }
-                node.invisibleAnnotations = patch.applyTo(node.invisibleAnnotations);
+                node.invisibleAnnotations = Util.applyPatch(patch, node.invisibleAnnotations);
             }
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
@@ -168,12 +213,12 @@ public class ClassPatcher extends DiffVisitor {
                 if (node.visibleTypeAnnotations == null) {
                     node.visibleTypeAnnotations = Collections.emptyList();
                 }
-                node.visibleTypeAnnotations = patch.applyTo(node.visibleTypeAnnotations);
+                node.visibleTypeAnnotations = Util.applyPatch(patch, node.visibleTypeAnnotations);
             } else {
                 if (node.invisibleTypeAnnotations == null) {
                     node.invisibleTypeAnnotations = Collections.emptyList();
                 }
-                node.invisibleTypeAnnotations = patch.applyTo(node.invisibleTypeAnnotations);
+                node.invisibleTypeAnnotations = Util.applyPatch(patch, node.invisibleTypeAnnotations);
             }
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
@@ -187,7 +232,7 @@ public class ClassPatcher extends DiffVisitor {
         final List<MemberName> originalList = MemberName.fromRecordComponents(node.recordComponents);
         final List<MemberName> modifiedList;
         try {
-            modifiedList = patch.applyTo(originalList);
+            modifiedList = Util.applyPatch(patch, originalList);
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
         }
@@ -236,12 +281,12 @@ public class ClassPatcher extends DiffVisitor {
                         if (fRecordNode.visibleAnnotations == null) {
                             fRecordNode.visibleAnnotations = Collections.emptyList();
                         }
-                        fRecordNode.visibleAnnotations = patch.applyTo(fRecordNode.visibleAnnotations);
+                        fRecordNode.visibleAnnotations = Util.applyPatch(patch, fRecordNode.visibleAnnotations);
                     } else {
                         if (fRecordNode.invisibleAnnotations == null) {
                             fRecordNode.invisibleAnnotations = Collections.emptyList();
                         }
-                        fRecordNode.invisibleAnnotations = patch.applyTo(fRecordNode.invisibleAnnotations);
+                        fRecordNode.invisibleAnnotations = Util.applyPatch(patch, fRecordNode.invisibleAnnotations);
                     }
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
@@ -255,12 +300,12 @@ public class ClassPatcher extends DiffVisitor {
                         if (fRecordNode.visibleTypeAnnotations == null) {
                             fRecordNode.visibleTypeAnnotations = Collections.emptyList();
                         }
-                        fRecordNode.visibleTypeAnnotations = patch.applyTo(fRecordNode.visibleTypeAnnotations);
+                        fRecordNode.visibleTypeAnnotations = Util.applyPatch(patch, fRecordNode.visibleTypeAnnotations);
                     } else {
                         if (fRecordNode.invisibleTypeAnnotations == null) {
                             fRecordNode.invisibleTypeAnnotations = Collections.emptyList();
                         }
-                        fRecordNode.invisibleTypeAnnotations = patch.applyTo(fRecordNode.invisibleTypeAnnotations);
+                        fRecordNode.invisibleTypeAnnotations = Util.applyPatch(patch, fRecordNode.invisibleTypeAnnotations);
                     }
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
@@ -320,7 +365,7 @@ public class ClassPatcher extends DiffVisitor {
                     node.module.packages = Collections.emptyList();
                 }
                 try {
-                    node.module.packages = patch.applyTo(node.module.packages);
+                    node.module.packages = Util.applyPatch(patch, node.module.packages);
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
                 }
@@ -332,7 +377,7 @@ public class ClassPatcher extends DiffVisitor {
                     node.module.requires = Collections.emptyList();
                 }
                 try {
-                    node.module.requires = patch.applyTo(node.module.requires);
+                    node.module.requires = Util.applyPatch(patch, node.module.requires);
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
                 }
@@ -344,7 +389,7 @@ public class ClassPatcher extends DiffVisitor {
                     node.module.exports = Collections.emptyList();
                 }
                 try {
-                    node.module.exports = patch.applyTo(node.module.exports);
+                    node.module.exports = Util.applyPatch(patch, node.module.exports);
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
                 }
@@ -356,7 +401,7 @@ public class ClassPatcher extends DiffVisitor {
                     node.module.opens = Collections.emptyList();
                 }
                 try {
-                    node.module.opens = patch.applyTo(node.module.opens);
+                    node.module.opens = Util.applyPatch(patch, node.module.opens);
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
                 }
@@ -368,7 +413,7 @@ public class ClassPatcher extends DiffVisitor {
                     node.module.uses = Collections.emptyList();
                 }
                 try {
-                    node.module.uses = patch.applyTo(node.module.uses);
+                    node.module.uses = Util.applyPatch(patch, node.module.uses);
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
                 }
@@ -380,7 +425,7 @@ public class ClassPatcher extends DiffVisitor {
                     node.module.provides = Collections.emptyList();
                 }
                 try {
-                    node.module.provides = patch.applyTo(node.module.provides);
+                    node.module.provides = Util.applyPatch(patch, node.module.provides);
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
                 }
@@ -419,7 +464,7 @@ public class ClassPatcher extends DiffVisitor {
         final List<MemberName> originalList = MemberName.fromFields(node.fields);
         final List<MemberName> modifiedList;
         try {
-            modifiedList = patch.applyTo(originalList);
+            modifiedList = Util.applyPatch(patch, originalList);
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
         }
@@ -477,12 +522,12 @@ public class ClassPatcher extends DiffVisitor {
                         if (fFieldNode.visibleAnnotations == null) {
                             fFieldNode.visibleAnnotations = Collections.emptyList();
                         }
-                        fFieldNode.visibleAnnotations = patch.applyTo(fFieldNode.visibleAnnotations);
+                        fFieldNode.visibleAnnotations = Util.applyPatch(patch, fFieldNode.visibleAnnotations);
                     } else {
                         if (fFieldNode.invisibleAnnotations == null) {
                             fFieldNode.invisibleAnnotations = Collections.emptyList();
                         }
-                        fFieldNode.invisibleAnnotations = patch.applyTo(fFieldNode.invisibleAnnotations);
+                        fFieldNode.invisibleAnnotations = Util.applyPatch(patch, fFieldNode.invisibleAnnotations);
                     }
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
@@ -496,12 +541,12 @@ public class ClassPatcher extends DiffVisitor {
                         if (fFieldNode.visibleTypeAnnotations == null) {
                             fFieldNode.visibleTypeAnnotations = Collections.emptyList();
                         }
-                        fFieldNode.visibleTypeAnnotations = patch.applyTo(fFieldNode.visibleTypeAnnotations);
+                        fFieldNode.visibleTypeAnnotations = Util.applyPatch(patch, fFieldNode.visibleTypeAnnotations);
                     } else {
                         if (fFieldNode.invisibleTypeAnnotations == null) {
                             fFieldNode.invisibleTypeAnnotations = Collections.emptyList();
                         }
-                        fFieldNode.invisibleTypeAnnotations = patch.applyTo(fFieldNode.invisibleTypeAnnotations);
+                        fFieldNode.invisibleTypeAnnotations = Util.applyPatch(patch, fFieldNode.invisibleTypeAnnotations);
                     }
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
@@ -541,7 +586,7 @@ public class ClassPatcher extends DiffVisitor {
         final List<MemberName> originalList = MemberName.fromMethods(node.methods);
         final List<MemberName> modifiedList;
         try {
-            modifiedList = patch.applyTo(originalList);
+            modifiedList = Util.applyPatch(patch, originalList);
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
         }
@@ -589,7 +634,7 @@ public class ClassPatcher extends DiffVisitor {
         methodNode.access = access;
         methodNode.signature = signature;
         try {
-            methodNode.exceptions = exceptions.applyTo(methodNode.exceptions);
+            methodNode.exceptions = Util.applyPatch(exceptions, methodNode.exceptions);
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
         }
@@ -606,12 +651,12 @@ public class ClassPatcher extends DiffVisitor {
                         if (fMethodNode.visibleAnnotations == null) {
                             fMethodNode.visibleAnnotations = Collections.emptyList();
                         }
-                        fMethodNode.visibleAnnotations = patch.applyTo(fMethodNode.visibleAnnotations);
+                        fMethodNode.visibleAnnotations = Util.applyPatch(patch, fMethodNode.visibleAnnotations);
                     } else {
                         if (fMethodNode.invisibleAnnotations == null) {
                             fMethodNode.invisibleAnnotations = Collections.emptyList();
                         }
-                        fMethodNode.invisibleAnnotations = patch.applyTo(fMethodNode.invisibleAnnotations);
+                        fMethodNode.invisibleAnnotations = Util.applyPatch(patch, fMethodNode.invisibleAnnotations);
                     }
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
@@ -625,12 +670,12 @@ public class ClassPatcher extends DiffVisitor {
                         if (fMethodNode.visibleTypeAnnotations == null) {
                             fMethodNode.visibleTypeAnnotations = Collections.emptyList();
                         }
-                        fMethodNode.visibleTypeAnnotations = patch.applyTo(fMethodNode.visibleTypeAnnotations);
+                        fMethodNode.visibleTypeAnnotations = Util.applyPatch(patch, fMethodNode.visibleTypeAnnotations);
                     } else {
                         if (fMethodNode.invisibleTypeAnnotations == null) {
                             fMethodNode.invisibleTypeAnnotations = Collections.emptyList();
                         }
-                        fMethodNode.invisibleTypeAnnotations = patch.applyTo(fMethodNode.invisibleTypeAnnotations);
+                        fMethodNode.invisibleTypeAnnotations = Util.applyPatch(patch, fMethodNode.invisibleTypeAnnotations);
                     }
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
@@ -661,7 +706,7 @@ public class ClassPatcher extends DiffVisitor {
                 }
                 try {
                     for (int i = 0; i < output.length; i++) {
-                        output[i] = patches.get(i).applyTo(Util.getListFromArray(output, i));
+                        output[i] = Util.applyPatch(patches.get(i), Util.getListFromArray(output, i));
                     }
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
@@ -674,7 +719,7 @@ public class ClassPatcher extends DiffVisitor {
                     fMethodNode.parameters = Collections.emptyList();
                 }
                 try {
-                    fMethodNode.parameters = parameters.applyTo(fMethodNode.parameters);
+                    fMethodNode.parameters = Util.applyPatch(parameters, fMethodNode.parameters);
                 } catch (PatchFailedException e) {
                     throw new UncheckedPatchFailure(e);
                 }
@@ -724,64 +769,28 @@ public class ClassPatcher extends DiffVisitor {
                     );
                 }
 
-                final Map<LabelNode, LabelNode> clonedLabels = new HashMap<>();
-                for (final AbstractInsnNode insn : fMethodNode.instructions) {
-                    if (insn instanceof LabelNode) {
-                        clonedLabels.put((LabelNode)insn, new LabelNode());
-                    }
-                }
+                final InsnList instructions = fMethodNode.instructions;
+                final LabelMap originalLabelMap = new LabelMap(instructions);
+                final List<AbstractInsnNode> insertedInsns = Util.applyPatchInPlace(patch, instructions);
 
-                final List<AbstractInsnNode> clonedInsns = new ArrayList<>(fMethodNode.instructions.size());
-                for (final AbstractInsnNode insn : fMethodNode.instructions) {
-                    clonedInsns.add(insn.clone(clonedLabels));
-                }
-
-                final InsnList newInsns = Util.asInsnList(Util.applyPatchUnchecked(patch, clonedInsns));
-
-                final LabelMap newLabelMap = new LabelMap(newInsns);
+                final LabelMap newLabelMap = new LabelMap(instructions);
                 insnsLabelMap = newLabelMap;
-                for (final AbstractInsnNode insn : newInsns) {
-                    switch (insn.getType()) {
-                        case AbstractInsnNode.JUMP_INSN: {
-                            final JumpInsnNode jumpInsn = (JumpInsnNode)insn;
-                            jumpInsn.label = newLabelMap.resolve(jumpInsn.label);
-                            break;
-                        }
-                        case AbstractInsnNode.TABLESWITCH_INSN: {
-                            final TableSwitchInsnNode tableSwitchInsn = (TableSwitchInsnNode)insn;
-                            tableSwitchInsn.dflt = newLabelMap.resolve(tableSwitchInsn.dflt);
-                            tableSwitchInsn.labels.replaceAll(newLabelMap::resolve);
-                            break;
-                        }
-                        case AbstractInsnNode.LOOKUPSWITCH_INSN: {
-                            final LookupSwitchInsnNode lookupSwitchInsn = (LookupSwitchInsnNode)insn;
-                            lookupSwitchInsn.dflt = newLabelMap.resolve(lookupSwitchInsn.dflt);
-                            lookupSwitchInsn.labels.replaceAll(newLabelMap::resolve);
-                            break;
-                        }
-                        case AbstractInsnNode.LINE: {
-                            final LineNumberNode lineNumber = (LineNumberNode)insn;
-                            lineNumber.start = newLabelMap.resolve(lineNumber.start);
-                            break;
-                        }
-                        case AbstractInsnNode.FRAME: {
-                            final FrameNode frame = (FrameNode)insn;
-                            if (frame.stack != null || frame.local != null) {
-                                final UnaryOperator<Object> replacer =
-                                    o -> o instanceof LabelNode ? newLabelMap.resolve((LabelNode)o) : o;
-                                if (frame.stack != null) {
-                                    frame.stack.replaceAll(replacer);
-                                }
-                                if (frame.local != null) {
-                                    frame.local.replaceAll(replacer);
-                                }
-                            }
-                            break;
-                        }
+
+                // Labels are matched by id, so if the patch inserted or removed labels, the label node an unchanged insn
+                // refers to may have been replaced or shifted. Those references need to be moved to the label that now
+                // has their original id.
+                final Map<LabelNode, LabelNode> movedLabels = new IdentityHashMap<>();
+                for (int i = 0; i < originalLabelMap.size() && i < newLabelMap.size(); i++) {
+                    if (originalLabelMap.byId(i) != newLabelMap.byId(i)) {
+                        movedLabels.put(originalLabelMap.byId(i), newLabelMap.byId(i));
                     }
                 }
-
-                fMethodNode.instructions = newInsns;
+                final UnaryOperator<LabelNode> resolver = label -> label instanceof SyntheticLabelNode
+                    ? newLabelMap.resolve(label)
+                    : movedLabels.getOrDefault(label, label);
+                for (final AbstractInsnNode insn : movedLabels.isEmpty() ? insertedInsns : instructions) {
+                    resolveLabels(insn, resolver);
+                }
             }
 
             @Override
@@ -903,4 +912,44 @@ public class ClassPatcher extends DiffVisitor {
             }
         };
     }
+
+    private static void resolveLabels(AbstractInsnNode insn, UnaryOperator<LabelNode> resolver) {
+        switch (insn.getType()) {
+            case AbstractInsnNode.JUMP_INSN: {
+                final JumpInsnNode jumpInsn = (JumpInsnNode)insn;
+                jumpInsn.label = resolver.apply(jumpInsn.label);
+                break;
+            }
+            case AbstractInsnNode.TABLESWITCH_INSN: {
+                final TableSwitchInsnNode tableSwitchInsn = (TableSwitchInsnNode)insn;
+                tableSwitchInsn.dflt = resolver.apply(tableSwitchInsn.dflt);
+                tableSwitchInsn.labels.replaceAll(resolver);
+                break;
+            }
+            case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+                final LookupSwitchInsnNode lookupSwitchInsn = (LookupSwitchInsnNode)insn;
+                lookupSwitchInsn.dflt = resolver.apply(lookupSwitchInsn.dflt);
+                lookupSwitchInsn.labels.replaceAll(resolver);
+                break;
+            }
+            case AbstractInsnNode.LINE: {
+                final LineNumberNode lineNumber = (LineNumberNode)insn;
+                lineNumber.start = resolver.apply(lineNumber.start);
+                break;
+            }
+            case AbstractInsnNode.FRAME: {
+                final FrameNode frame = (FrameNode)insn;
+                if (frame.stack != null || frame.local != null) {
+                    final UnaryOperator<Object> replacer = o -> o instanceof LabelNode ? resolver.apply((LabelNode)o) : o;
+                    if (frame.stack != null) {
+                        frame.stack.replaceAll(replacer);
+                    }
+                    if (frame.local != null) {
+                        frame.local.replaceAll(replacer);
+                    }
+                }
+                break;
+            }
+        }
+    }
 }
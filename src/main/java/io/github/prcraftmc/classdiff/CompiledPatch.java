@@ -0,0 +1,90 @@
+package io.github.prcraftmc.classdiff;
+
+import io.github.prcraftmc.classdiff.format.DiffReader;
+import io.github.prcraftmc.classdiff.util.MemberName;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A diff that is read once and can then be applied to any number of classes, from any number of threads at once. The
+ * constant pool and the list of patched members are decoded up front, so applying the patch doesn't re-read them.
+ * <p>
+ * The patches within the diff are still decoded on each application, as they are relative to the class being patched,
+ * and the instructions they contain are inserted into it.
+ */
+public final class CompiledPatch {
+    private final DiffReader reader;
+    private final Set<MemberName> patchedFields;
+    private final Set<MemberName> patchedMethods;
+
+    public CompiledPatch(byte[] contents) {
+        this(new DiffReader(contents));
+    }
+
+    /**
+     * @see DiffReader#DiffReader(ByteBuffer)
+     */
+    public CompiledPatch(ByteBuffer contents) {
+        this(new DiffReader(contents));
+    }
+
+    private CompiledPatch(DiffReader reader) {
+        this.reader = reader.decodeConstantPool();
+        patchedFields = Collections.unmodifiableSet(reader.getPatchedFields());
+        patchedMethods = Collections.unmodifiableSet(reader.getPatchedMethods());
+    }
+
+    /**
+     * @see DiffReader#isUnchanged()
+     */
+    public boolean isUnchanged() {
+        return reader.isUnchanged();
+    }
+
+    public Set<MemberName> getPatchedFields() {
+        return patchedFields;
+    }
+
+    public Set<MemberName> getPatchedMethods() {
+        return patchedMethods;
+    }
+
+    /**
+     * @see ClassPatcher#patch(ClassNode, DiffReader)
+     */
+    public void patch(ClassNode node) {
+        ClassPatcher.patch(node, reader);
+    }
+
+    /**
+     * @see ClassPatcher#patch(ClassReader, DiffReader, ClassVisitor)
+     */
+    public void patch(ClassReader classReader, ClassVisitor output) {
+        if (reader.isUnchanged()) {
+            classReader.accept(output, 0);
+            return;
+        }
+        ClassPatcher.patch(classReader, reader, patchedFields, patchedMethods, output);
+    }
+
+    /**
+     * Patches the bytes of a class, copying the members that the patch doesn't touch as they are.
+     *
+     * @return The bytes of the patched class, which are {@code original} itself if the class is unchanged
+     */
+    public byte[] patch(byte[] original) {
+        if (reader.isUnchanged()) {
+            return original;
+        }
+        final ClassReader classReader = new ClassReader(original);
+        final ClassWriter writer = new ClassWriter(classReader, 0);
+        patch(classReader, writer);
+        return writer.toByteArray();
+    }
+}
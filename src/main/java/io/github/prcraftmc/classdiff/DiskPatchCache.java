@@ -0,0 +1,172 @@
+package io.github.prcraftmc.classdiff;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of patched classes, so that applying the same patch to the same class again is a file read. Entries
+ * are keyed by a SHA-256 digest of the source class, the patch, and caller-defined flags for anything else that changes
+ * the output, such as the options the class was read with. The cache may be shared between processes and outlive any
+ * one run, so the key has to be collision resistant rather than just a fast hash.
+ * <p>
+ * Entries are written to a temporary file and then moved into place, so concurrent readers, including other
+ * processes sharing the directory, never see a partial entry. Reading an entry updates its modification time, and once
+ * the cache grows past its maximum size the least recently used entries are deleted until it is back under 90% of it,
+ * so that a full cache isn't rescanned on every write.
+ */
+public class DiskPatchCache {
+    private static final String EXTENSION = ".class";
+
+    private final Path directory;
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * @param directory The directory to keep the cache in, which is created if it doesn't exist
+     * @param maxSize The size in bytes above which the least recently used entries are deleted
+     */
+    public DiskPatchCache(Path directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+        try (Stream<Path> stream = Files.walk(directory)) {
+            stream.filter(path -> path.toString().endsWith(EXTENSION)).forEach(path -> {
+                try {
+                    size.addAndGet(Files.size(path));
+                } catch (IOException ignored) {
+                    // Deleted by another process
+                }
+            });
+        }
+        evict(null);
+    }
+
+    /**
+     * @return The cached output for this source and patch, or {@code null} if there is none
+     */
+    public byte @Nullable [] get(byte[] source, byte[] patch, int flags) throws IOException {
+        final Path path = getPath(source, patch, flags);
+        try {
+            final byte[] result = Files.readAllBytes(path);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return result;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public void put(byte[] source, byte[] patch, int flags, byte[] output) throws IOException {
+        final Path path = getPath(source, patch, flags);
+        Files.createDirectories(path.getParent());
+        final Path temp = Files.createTempFile(path.getParent(), "tmp", ".part");
+        long replaced = 0;
+        try {
+            Files.write(temp, output);
+            try {
+                // Another thread or process already cached it, and its size is counted already
+                replaced = Files.size(path);
+            } catch (NoSuchFileException ignored) {
+                // A new entry
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (size.addAndGet(output.length - replaced) > maxSize) {
+            evict(path);
+        }
+    }
+
+    /**
+     * Returns the cached output for this source and patch, or computes it with {@code patcher} and caches it.
+     */
+    public byte[] get(byte[] source, byte[] patch, int flags, Supplier<byte[]> patcher) {
+        try {
+            byte[] result = get(source, patch, flags);
+            if (result == null) {
+                result = patcher.get();
+                put(source, patch, flags, result);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Path getPath(byte[] source, byte[] patch, int flags) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        // The lengths keep the boundary between the source and the patch from shifting
+        digest.update(intBytes(source.length));
+        digest.update(source);
+        digest.update(intBytes(patch.length));
+        digest.update(patch);
+        digest.update(intBytes(flags));
+
+        final StringBuilder name = new StringBuilder(64 + EXTENSION.length());
+        for (final byte b : digest.digest()) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return directory.resolve(name.substring(0, 2)).resolve(name.append(EXTENSION).toString());
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[] {(byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value};
+    }
+
+    /**
+     * @param keep The entry that was just written, which is never evicted in favor of older entries with the same
+     *     modification time
+     */
+    private synchronized void evict(@Nullable Path keep) throws IOException {
+        if (size.get() <= maxSize) return;
+
+        final List<Map.Entry<Path, BasicFileAttributes>> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            for (final Path path : (Iterable<Path>)stream.filter(p -> p.toString().endsWith(EXTENSION))::iterator) {
+                try {
+                    final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (!path.equals(keep)) {
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(path, attributes));
+                    }
+                    total += attributes.size();
+                } catch (NoSuchFileException ignored) {
+                    // Deleted by another process
+                }
+            }
+        }
+
+        final long target = maxSize - maxSize / 10;
+        entries.sort(Comparator.comparing(entry -> entry.getValue().lastModifiedTime()));
+        for (int i = 0; i < entries.size() && total > target; i++) {
+            Files.deleteIfExists(entries.get(i).getKey());
+            total -= entries.get(i).getValue().size();
+        }
+        size.set(total);
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.prcraftmc.classdiff;
+
+import io.github.prcraftmc.classdiff.util.MemberName;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+
+/**
+ * Emits a class patched by {@link ClassPatcher#patch(ClassReader, DiffReader, ClassVisitor)}. This is visited by the
+ * original {@link ClassReader}, and takes everything from the patched {@link ClassNode} except for the untouched
+ * members, which are left empty in the node and instead passed straight from the reader to the output.
+ * <p>
+ * Members are emitted in the patched order, which may differ from the order the reader visits them in if the patch
+ * moved members around. An untouched member is only passed straight through if everything before it has already been
+ * emitted. Otherwise, the reader fills in its empty node, which is then emitted in its place.
+ */
+class PassThroughAdapter extends ClassVisitor {
+    private final ClassNode node;
+    private final Map<MemberName, FieldNode> untouchedFields = new HashMap<>();
+    private final Map<MemberName, MethodNode> untouchedMethods = new HashMap<>();
+    private final Set<Object> unread = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<FieldNode> fields;
+    private final List<MethodNode> methods;
+    private int fieldIndex;
+    private int methodIndex;
+
+    PassThroughAdapter(ClassVisitor output, ClassNode node, Set<Object> untouched) {
+        super(Opcodes.ASM9, output);
+        this.node = node;
+        // Untouched members that were removed by the patch aren't in these maps, and are dropped
+        for (final FieldNode field : node.fields) {
+            if (untouched.contains(field)) {
+                untouchedFields.put(MemberName.fromField(field), field);
+                unread.add(field);
+            }
+        }
+        for (final MethodNode method : node.methods) {
+            if (untouched.contains(method)) {
+                untouchedMethods.put(MemberName.fromMethod(method), method);
+                unread.add(method);
+            }
+        }
+        fields = node.fields;
+        methods = node.methods;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        node.accept(new ClassVisitor(api, cv) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(
+                int access, String name, String descriptor, String signature, String[] exceptions
+            ) {
+                return null;
+            }
+
+            @Override
+            public void visitEnd() {
+            }
+        });
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+    }
+
+    @Override
+    public ModuleVisitor visitModule(String name, int access, String version) {
+        return null;
+    }
+
+    @Override
+    public void visitNestHost(String nestHost) {
+    }
+
+    @Override
+    public void visitOuterClass(String owner, String name, String descriptor) {
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        return null;
+    }
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        return null;
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+    }
+
+    @Override
+    public void visitNestMember(String nestMember) {
+    }
+
+    @Override
+    public void visitPermittedSubclass(String permittedSubclass) {
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+    }
+
+    @Override
+    public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+        return null;
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        final FieldNode target = untouchedFields.get(new MemberName(name, descriptor));
+        if (target == null) {
+            // Changed or removed. Changed fields are emitted from the node in their place.
+            return null;
+        }
+        flushFields();
+        unread.remove(target);
+        if (fieldIndex < fields.size() && fields.get(fieldIndex) == target) {
+            fieldIndex++;
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+        // An untouched field before this one hasn't been read yet, so this one is read into its node to wait for it
+        return target;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(
+        int access, String name, String descriptor, String signature, String[] exceptions
+    ) {
+        final MethodNode target = untouchedMethods.get(new MemberName(name, descriptor));
+        if (target == null) {
+            return null;
+        }
+        flushFields();
+        flushMethods();
+        unread.remove(target);
+        if (methodIndex < methods.size() && methods.get(methodIndex) == target) {
+            methodIndex++;
+            // The output's MethodVisitor must be returned as-is for ClassReader to copy the method without parsing it
+            return super.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+        return target;
+    }
+
+    @Override
+    public void visitEnd() {
+        flushFields();
+        flushMethods();
+        super.visitEnd();
+    }
+
+    /**
+     * Emits fields from the node up to the first untouched field that the reader hasn't visited yet. Fields that were
+     * passed straight through have already been skipped.
+     */
+    private void flushFields() {
+        for (; fieldIndex < fields.size(); fieldIndex++) {
+            final FieldNode next = fields.get(fieldIndex);
+            if (unread.contains(next)) break;
+            next.accept(cv);
+        }
+    }
+
+    private void flushMethods() {
+        for (; methodIndex < methods.size(); methodIndex++) {
+            final MethodNode next = methods.get(methodIndex);
+            if (unread.contains(next)) break;
+            next.accept(cv);
+        }
+    }
+}
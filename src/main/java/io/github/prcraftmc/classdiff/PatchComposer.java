@@ -0,0 +1,299 @@
+package io.github.prcraftmc.classdiff;
+
+import com.github.difflib.patch.Patch;
+import io.github.prcraftmc.classdiff.format.*;
+import io.github.prcraftmc.classdiff.util.MemberName;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.*;
+
+/**
+ * Combines a chain of diffs, such as A→B and B→C, into a single diff from the first class to the last, so that a class
+ * several versions behind can be upgraded in one step.
+ * <p>
+ * The diffs are combined without building the intermediate classes. The class header, the class attributes and the
+ * lists of fields and methods are small, so both diffs are applied to a copy of A that has none of its member bodies
+ * parsed, and the result is diffed against A. A member that only one of the diffs touches keeps that diff's patch as it
+ * is, since the member it applies to is the same in A. Only the members that both diffs touch are parsed from A, as
+ * the second patch is relative to the output of the first, and they are patched and diffed with {@link ClassDiffer}.
+ * The same goes for members that the first diff removes and the second adds back.
+ */
+public final class PatchComposer {
+    private PatchComposer() {
+    }
+
+    /**
+     * @param original The class that {@code first} applies to
+     */
+    public static void compose(ClassReader original, DiffReader first, DiffReader second, DiffWriter result) {
+        compose(original, first, second, 0, result);
+    }
+
+    /**
+     * @param original The class that {@code first} applies to
+     * @param parsingOptions The options passed to {@link ClassReader#accept(ClassVisitor, int)} when the diffs were
+     *     made
+     */
+    public static void compose(
+        ClassReader original, DiffReader first, DiffReader second, int parsingOptions, DiffWriter result
+    ) {
+        if (first.isUnchanged()) {
+            second.accept(result);
+            return;
+        }
+        if (second.isUnchanged()) {
+            first.accept(result);
+            return;
+        }
+
+        final Set<MemberName> firstFields = first.getPatchedFields();
+        final Set<MemberName> firstMethods = first.getPatchedMethods();
+        final Set<MemberName> secondFields = second.getPatchedFields();
+        final Set<MemberName> secondMethods = second.getPatchedMethods();
+        final Set<MemberName> parsedFields = new HashSet<>(firstFields);
+        parsedFields.retainAll(secondFields);
+        final Set<MemberName> parsedMethods = new HashSet<>(firstMethods);
+        parsedMethods.retainAll(secondMethods);
+
+        ClassNode originalNode = readSkeleton(original, parsingOptions, parsedFields, parsedMethods);
+        final ClassNode patchedNode = readSkeleton(original, parsingOptions, parsedFields, parsedMethods);
+        final Set<MemberName> originalFields = new HashSet<>(MemberName.fromFields(originalNode.fields));
+        final Set<MemberName> originalMethods = new HashSet<>(MemberName.fromMethods(originalNode.methods));
+
+        final SkeletonPatcher patcher = new SkeletonPatcher(
+            patchedNode, parsedFields, parsedMethods, originalFields, originalMethods
+        );
+        first.accept(patcher, patchedNode);
+        second.accept(patcher, patchedNode);
+        if (patcher.readded) {
+            // The first diff removed these, so the second adds them back as new members, which A needs to be diffed to
+            originalNode = readSkeleton(original, parsingOptions, parsedFields, parsedMethods);
+        }
+
+        final Set<MemberName> patchedFields = new HashSet<>(MemberName.fromFields(patchedNode.fields));
+        final Set<MemberName> patchedMethods = new HashSet<>(MemberName.fromMethods(patchedNode.methods));
+        final Set<MemberName> firstOnlyFields = new HashSet<>(firstFields);
+        firstOnlyFields.removeAll(parsedFields);
+        firstOnlyFields.retainAll(patchedFields);
+        final Set<MemberName> firstOnlyMethods = new HashSet<>(firstMethods);
+        firstOnlyMethods.removeAll(parsedMethods);
+        firstOnlyMethods.retainAll(patchedMethods);
+        final Set<MemberName> secondOnlyFields = new HashSet<>(secondFields);
+        secondOnlyFields.removeAll(parsedFields);
+        final Set<MemberName> secondOnlyMethods = new HashSet<>(secondMethods);
+        secondOnlyMethods.removeAll(parsedMethods);
+
+        ClassDiffer.diff(originalNode, patchedNode, new DiffVisitor(result) {
+            boolean fieldsCopied;
+
+            @Override
+            public FieldDiffVisitor visitField(
+                int access, String name, String descriptor, @Nullable String signature, @Nullable Object value
+            ) {
+                if (!parsedFields.contains(new MemberName(name, descriptor))) {
+                    return null;
+                }
+                return super.visitField(access, name, descriptor, signature, value);
+            }
+
+            @Override
+            public void visitMethods(Patch<MemberName> patch) {
+                copyFields();
+                super.visitMethods(patch);
+            }
+
+            @Override
+            public MethodDiffVisitor visitMethod(
+                int access, String name, String descriptor, @Nullable String signature, Patch<String> exceptions
+            ) {
+                copyFields();
+                if (!parsedMethods.contains(new MemberName(name, descriptor))) {
+                    return null;
+                }
+                return super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+
+            @Override
+            public void visitEnd() {
+                copyFields();
+                first.accept(new MemberCopier(result, Collections.emptySet(), firstOnlyMethods));
+                second.accept(new MemberCopier(result, Collections.emptySet(), secondOnlyMethods));
+                super.visitEnd();
+            }
+
+            private void copyFields() {
+                if (fieldsCopied) return;
+                fieldsCopied = true;
+                first.accept(new MemberCopier(result, firstOnlyFields, Collections.emptySet()));
+                second.accept(new MemberCopier(result, secondOnlyFields, Collections.emptySet()));
+            }
+        });
+    }
+
+    /**
+     * Combines any number of diffs, two at a time.
+     *
+     * @param original The class that the first diff applies to
+     * @param patches The diffs to combine, each applying to the output of the one before it
+     * @param parsingOptions The options passed to {@link ClassReader#accept(ClassVisitor, int)} when the diffs were
+     *     made
+     */
+    public static void compose(ClassReader original, List<DiffReader> patches, int parsingOptions, DiffWriter result) {
+        DiffReader composed = null;
+        for (final DiffReader patch : patches) {
+            if (patch.isUnchanged()) continue;
+            if (composed == null) {
+                composed = patch;
+                continue;
+            }
+            final DiffWriter writer = new DiffWriter();
+            compose(original, composed, patch, parsingOptions, writer);
+            composed = new DiffReader(writer.toByteArray());
+        }
+        if (composed != null) {
+            composed.accept(result);
+        } else {
+            result.visitUnchanged(DiffConstants.V_MAX);
+        }
+    }
+
+    /**
+     * Reads the class with only the bodies of the given members, so that every other member is just its header.
+     */
+    private static ClassNode readSkeleton(
+        ClassReader reader, int parsingOptions, Set<MemberName> fields, Set<MemberName> methods
+    ) {
+        final ClassNode result = new ClassNode();
+        reader.accept(new ClassVisitor(Opcodes.ASM9, result) {
+            @Override
+            public FieldVisitor visitField(
+                int access, String name, String descriptor, String signature, Object value
+            ) {
+                final FieldVisitor visitor = super.visitField(access, name, descriptor, signature, value);
+                return fields.contains(new MemberName(name, descriptor)) ? visitor : null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(
+                int access, String name, String descriptor, String signature, String[] exceptions
+            ) {
+                final MethodVisitor visitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                return methods.contains(new MemberName(name, descriptor)) ? visitor : null;
+            }
+        }, parsingOptions);
+        return result;
+    }
+
+    /**
+     * Applies the class-level parts of a diff to a skeleton from {@link #readSkeleton}, along with the patches of the
+     * members whose bodies it has. Members that a diff adds back after an earlier one removed them are added to those.
+     */
+    private static final class SkeletonPatcher extends DiffVisitor {
+        private final ClassNode node;
+        private final Set<MemberName> fields;
+        private final Set<MemberName> methods;
+        private final Set<MemberName> originalFields;
+        private final Set<MemberName> originalMethods;
+        boolean readded;
+
+        SkeletonPatcher(
+            ClassNode node,
+            Set<MemberName> fields,
+            Set<MemberName> methods,
+            Set<MemberName> originalFields,
+            Set<MemberName> originalMethods
+        ) {
+            super(new ClassPatcher(node));
+            this.node = node;
+            this.fields = fields;
+            this.methods = methods;
+            this.originalFields = originalFields;
+            this.originalMethods = originalMethods;
+        }
+
+        @Override
+        public void visitFields(Patch<MemberName> patch) {
+            final Set<MemberName> before = new HashSet<>(MemberName.fromFields(node.fields));
+            super.visitFields(patch);
+            addReadded(before, MemberName.fromFields(node.fields), originalFields, fields);
+        }
+
+        @Nullable
+        @Override
+        public FieldDiffVisitor visitField(
+            int access, String name, String descriptor, @Nullable String signature, @Nullable Object value
+        ) {
+            if (!fields.contains(new MemberName(name, descriptor))) {
+                return null;
+            }
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public void visitMethods(Patch<MemberName> patch) {
+            final Set<MemberName> before = new HashSet<>(MemberName.fromMethods(node.methods));
+            super.visitMethods(patch);
+            addReadded(before, MemberName.fromMethods(node.methods), originalMethods, methods);
+        }
+
+        @Nullable
+        @Override
+        public MethodDiffVisitor visitMethod(
+            int access, String name, String descriptor, @Nullable String signature, Patch<String> exceptions
+        ) {
+            if (!methods.contains(new MemberName(name, descriptor))) {
+                return null;
+            }
+            return super.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+
+        private void addReadded(
+            Set<MemberName> before, List<MemberName> after, Set<MemberName> original, Set<MemberName> parsed
+        ) {
+            for (final MemberName name : after) {
+                if (!before.contains(name) && original.contains(name) && parsed.add(name)) {
+                    readded = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the patches of the given members, and nothing else, from a diff read without its class.
+     */
+    private static final class MemberCopier extends DiffVisitor {
+        private final DiffVisitor output;
+        private final Set<MemberName> fields;
+        private final Set<MemberName> methods;
+
+        MemberCopier(DiffVisitor output, Set<MemberName> fields, Set<MemberName> methods) {
+            this.output = output;
+            this.fields = fields;
+            this.methods = methods;
+        }
+
+        @Nullable
+        @Override
+        public FieldDiffVisitor visitField(
+            int access, String name, String descriptor, @Nullable String signature, @Nullable Object value
+        ) {
+            if (!fields.contains(new MemberName(name, descriptor))) {
+                return null;
+            }
+            return output.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Nullable
+        @Override
+        public MethodDiffVisitor visitMethod(
+            int access, String name, String descriptor, @Nullable String signature, Patch<String> exceptions
+        ) {
+            if (!methods.contains(new MemberName(name, descriptor))) {
+                return null;
+            }
+            return output.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+    }
+}
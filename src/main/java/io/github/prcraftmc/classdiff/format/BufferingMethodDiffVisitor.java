@@ -0,0 +1,97 @@
+package io.github.prcraftmc.classdiff.format;
+
+import com.github.difflib.patch.Patch;
+import io.github.prcraftmc.classdiff.util.LabelMap;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Records the events it visits, so that they can be {@linkplain #replay replayed} into another visitor later. This
+ * lets a method be diffed on another thread, and then be written in order with the rest of the class.
+ */
+public class BufferingMethodDiffVisitor extends MethodDiffVisitor {
+    private final List<Consumer<MethodDiffVisitor>> events = new ArrayList<>();
+
+    /**
+     * Visits every recorded event on {@code visitor}, in the order they were recorded.
+     */
+    public void replay(MethodDiffVisitor visitor) {
+        for (final Consumer<MethodDiffVisitor> event : events) {
+            event.accept(visitor);
+        }
+    }
+
+    @Override
+    public void visitAnnotations(Patch<AnnotationNode> patch, boolean visible) {
+        events.add(v -> v.visitAnnotations(patch, visible));
+    }
+
+    @Override
+    public void visitTypeAnnotations(Patch<TypeAnnotationNode> patch, boolean visible) {
+        events.add(v -> v.visitTypeAnnotations(patch, visible));
+    }
+
+    @Override
+    public void visitAnnotationDefault(@Nullable Object value) {
+        events.add(v -> v.visitAnnotationDefault(value));
+    }
+
+    @Override
+    public void visitParameterAnnotations(int annotableCount, List<Patch<AnnotationNode>> patches, boolean visible) {
+        events.add(v -> v.visitParameterAnnotations(annotableCount, patches, visible));
+    }
+
+    @Override
+    public void visitParameters(Patch<ParameterNode> parameters) {
+        events.add(v -> v.visitParameters(parameters));
+    }
+
+    @Override
+    public void visitCustomAttribute(String name, byte @Nullable [] patchOrContents) {
+        events.add(v -> v.visitCustomAttribute(name, patchOrContents));
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        events.add(v -> v.visitMaxs(maxStack, maxLocals));
+    }
+
+    @Override
+    public void visitInsns(int unpatchedInsnCount, Patch<AbstractInsnNode> patch, Supplier<LabelMap> patchedLabelMap) {
+        events.add(v -> v.visitInsns(unpatchedInsnCount, patch, patchedLabelMap));
+    }
+
+    @Override
+    public void visitLocalVariables(List<LocalVariableNode> newLocals, @Nullable LabelMap useMap) {
+        events.add(v -> v.visitLocalVariables(newLocals, useMap));
+    }
+
+    @Override
+    public void visitTryCatchBlocks(List<TryCatchBlockNode> newBlocks, @Nullable LabelMap useMap) {
+        events.add(v -> v.visitTryCatchBlocks(newBlocks, useMap));
+    }
+
+    @Override
+    public void visitLocalVariableAnnotations(
+        List<LocalVariableAnnotationNode> annotations,
+        boolean visible,
+        @Nullable LabelMap useMap
+    ) {
+        events.add(v -> v.visitLocalVariableAnnotations(annotations, visible, useMap));
+    }
+
+    @Override
+    public void visitInsnAnnotations(int[] indices, List<TypeAnnotationNode> annotations, boolean visible) {
+        events.add(v -> v.visitInsnAnnotations(indices, annotations, visible));
+    }
+
+    @Override
+    public void visitEnd() {
+        events.add(MethodDiffVisitor::visitEnd);
+    }
+}
@@ -4,7 +4,11 @@ public class DiffConstants {
     public static final int MAGIC = 0xEBABEFAC;
 
     public static final int V1 = 1;
-    public static final int V_MAX = V1;
+    public static final int V2 = 2;
+    public static final int V_MAX = V2;
+
+    public static final int ARCHIVE_MAGIC = 0xEBABEFAD;
+    public static final int ARCHIVE_V1 = 1;
 
     public static final int LDC_W = 19;
     public static final int LDC2_W = 20;
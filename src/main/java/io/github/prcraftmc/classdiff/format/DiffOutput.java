@@ -0,0 +1,60 @@
+package io.github.prcraftmc.classdiff.format;
+
+import io.github.prcraftmc.classdiff.util.ReflectUtils;
+import io.github.prcraftmc.classdiff.util.Util;
+import org.objectweb.asm.ByteVector;
+
+import java.io.IOException;
+
+/**
+ * The destination of {@link DiffWriter}. Small values are gathered in a buffer, while sections are passed to
+ * {@link #write} as is, without being copied first.
+ */
+abstract class DiffOutput {
+    private ByteVector buffer = new ByteVector();
+
+    DiffOutput putByte(int value) {
+        buffer.putByte(value);
+        return this;
+    }
+
+    DiffOutput putShort(int value) {
+        buffer.putShort(value);
+        return this;
+    }
+
+    DiffOutput putInt(int value) {
+        buffer.putInt(value);
+        return this;
+    }
+
+    DiffOutput putVarInt(int value) {
+        Util.putVarInt(buffer, value);
+        return this;
+    }
+
+    DiffOutput put(ByteVector vector) throws IOException {
+        return put(ReflectUtils.getByteVectorData(vector), 0, vector.size());
+    }
+
+    DiffOutput put(byte[] data, int offset, int length) throws IOException {
+        flush();
+        if (length > 0) {
+            write(data, offset, length);
+        }
+        return this;
+    }
+
+    void flush() throws IOException {
+        if (buffer.size() > 0) {
+            // The data is passed on without copying, so it can't be reused
+            write(ReflectUtils.getByteVectorData(buffer), 0, buffer.size());
+            buffer = new ByteVector();
+        }
+    }
+
+    /**
+     * @apiNote {@code data} must not be modified, but it may be kept until the diff is fully written.
+     */
+    protected abstract void write(byte[] data, int offset, int length) throws IOException;
+}
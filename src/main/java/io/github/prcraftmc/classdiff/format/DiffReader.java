@@ -4,9 +4,12 @@ import com.github.difflib.patch.DeltaType;
 import com.github.difflib.patch.Patch;
 import io.github.prcraftmc.classdiff.util.Util;
 import io.github.prcraftmc.classdiff.util.*;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 
 public class DiffReader {
@@ -30,12 +33,16 @@ public class DiffReader {
         return readPackage(reader.pointer() - 2);
     });
 
-    private final byte[] contents;
+    private final ByteBuffer contents;
 
     private int version;
+    private boolean varInts;
+    private int classVersion;
+    private int classAccess;
+    private int classNamesPos;
+    private boolean unchanged;
     private String[] constantStringCache;
     private char[] charBuffer;
-    private int startPos;
 
     private ConstantDynamic[] condyCache;
     private int[] bsmOffsets;
@@ -43,7 +50,16 @@ public class DiffReader {
     private final ThreadLocal<Context> context = new ThreadLocal<>();
 
     public DiffReader(byte[] contents) {
-        this.contents = contents;
+        this(ByteBuffer.wrap(contents));
+    }
+
+    /**
+     * Reads the diff from the remaining bytes of {@code contents}, which may be a slice of a larger buffer, such as a
+     * {@link java.nio.MappedByteBuffer} of a whole patch archive. The bytes are read in place rather than copied, so
+     * they must not be modified while this reader is in use. The position of {@code contents} is not changed.
+     */
+    public DiffReader(ByteBuffer contents) {
+        this.contents = contents.slice().order(ByteOrder.BIG_ENDIAN);
         readStart();
     }
 
@@ -60,6 +76,10 @@ public class DiffReader {
         }
 
         final int constantCount = readShort(6);
+        if (constantCount == 0) {
+            unchanged = true;
+            return;
+        }
         constantOffsets = new int[constantCount + 1];
         constantStringCache = new String[constantCount + 1];
 
@@ -70,7 +90,7 @@ public class DiffReader {
         for (int i = 1; i < constantCount; i++) {
             constantOffsets[i] = pointer + 1;
             int size;
-            switch (contents[pointer]) {
+            switch (contents.get(pointer)) {
                 case Symbol.CONSTANT_FIELDREF_TAG:
                 case Symbol.CONSTANT_METHODREF_TAG:
                 case Symbol.CONSTANT_INTERFACE_METHODREF_TAG:
@@ -110,13 +130,18 @@ public class DiffReader {
                     size = 3;
                     break;
                 default:
-                    throw new IllegalArgumentException("Unknown constant type: " + contents[pointer]);
+                    throw new IllegalArgumentException("Unknown constant type: " + contents.get(pointer));
             }
             pointer += size;
         }
         charBuffer = new char[maxStringSize];
 
-        startPos = pointer;
+        final int startPos = pointer;
+        varInts = version >= DiffConstants.V2;
+        final ByteReader header = new ByteReader(contents, startPos);
+        classVersion = readVarIntOrInt(header);
+        classAccess = readVarIntOrInt(header);
+        classNamesPos = header.pointer();
 
         if (hasCondy) {
             condyCache = new ConstantDynamic[constantCount];
@@ -126,30 +151,83 @@ public class DiffReader {
         }
     }
 
-    public void accept(DiffVisitor visitor, ClassNode node) {
+    /**
+     * Decodes every string and dynamic constant up front, instead of as they're first used. Once this returns, the
+     * reader no longer modifies itself, so a single instance may be {@linkplain #accept accepted} by many threads at
+     * once.
+     *
+     * @return This reader
+     */
+    public DiffReader decodeConstantPool() {
+        if (unchanged) {
+            return this;
+        }
+        for (int i = 1; i < constantOffsets.length - 1; i++) {
+            final int offset = constantOffsets[i];
+            if (offset == 0) continue; // Second half of a long or double
+            switch (contents.get(offset - 1)) {
+                case Symbol.CONSTANT_UTF8_TAG:
+                    readUtf(i);
+                    break;
+                case Symbol.CONSTANT_DYNAMIC_TAG:
+                    readConstantDynamic(i);
+                    break;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return Whether this diff only marks its class as unchanged. Applying such a diff does nothing, so callers can
+     *         use the original class as it is.
+     */
+    public boolean isUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Visits this diff without the class it applies to. The patches then only know the position and size of the lines
+     * they replace, not the lines themselves, which are {@code null}. This is enough to copy the diff, such as to a
+     * {@link DiffWriter}, but not to apply it.
+     */
+    public void accept(DiffVisitor visitor) {
+        accept(visitor, null);
+    }
+
+    /**
+     * @param node The class this diff applies to, which the patches read the lines they replace from. If the visitor
+     *     patches {@code node} as it goes, as {@link io.github.prcraftmc.classdiff.ClassPatcher} does, each patch is
+     *     read against its current contents.
+     */
+    public void accept(DiffVisitor visitor, @Nullable ClassNode node) {
+        if (unchanged) {
+            visitor.visitUnchanged(version);
+            return;
+        }
+
         context.set(new Context());
 
-        final ByteReader reader = new ByteReader(contents, startPos + 14);
+        final ByteReader reader = new ByteReader(contents, classNamesPos + 6);
 
         final Patch<String> interfacePatch;
         {
-            if (reader.readShort() == 0) {
+            if (PatchReader.readIndex(reader, varInts) == 0) {
                 interfacePatch = null;
             } else {
-                reader.skip(-2);
+                reader.pointer(classNamesPos + 6);
                 interfacePatch = classPatchReader.readPatch(
-                    reader, Util.nullToEmpty(node.interfaces)
+                    reader, node != null ? Util.nullToEmpty(node.interfaces) : null, varInts
                 );
             }
         }
 
         visitor.visit(
             version,
-            readInt(startPos),
-            readInt(startPos + 4),
-            readClass(startPos + 8),
-            readUtf8(startPos + 10),
-            readClass(startPos + 12),
+            classVersion,
+            classAccess,
+            readClass(classNamesPos),
+            readUtf8(classNamesPos + 2),
+            readClass(classNamesPos + 4),
             interfacePatch
         );
 
@@ -177,7 +255,7 @@ public class DiffReader {
                         );
                     }).readPatch(
                         reader,
-                        Util.nullToEmpty(node.innerClasses)
+                        node != null ? Util.nullToEmpty(node.innerClasses) : null, varInts
                     ));
                     break;
                 case "OuterClasses":
@@ -193,43 +271,44 @@ public class DiffReader {
                 case "NestMembers":
                     visitor.visitNestMembers(classPatchReader.readPatch(
                         reader,
-                        Util.nullToEmpty(node.nestMembers)
+                        node != null ? Util.nullToEmpty(node.nestMembers) : null, varInts
                     ));
                     break;
                 case "PermittedSubclasses":
                     visitor.visitPermittedSubclasses(classPatchReader.readPatch(
                         reader,
-                        Util.nullToEmpty(node.permittedSubclasses)
+                        node != null ? Util.nullToEmpty(node.permittedSubclasses) : null, varInts
                     ));
                     break;
                 case "VisibleAnnotations":
                     visitor.visitAnnotations(annotationPatchReader.readPatch(
                         reader,
-                        Util.nullToEmpty(node.visibleAnnotations)
+                        node != null ? Util.nullToEmpty(node.visibleAnnotations) : null, varInts
                     ), true);
                     break;
                 case "InvisibleAnnotations":
                     visitor.visitAnnotations(annotationPatchReader.readPatch(
                         reader,
-                        Util.nullToEmpty(node.invisibleAnnotations)
+                        node != null ? Util.nullToEmpty(node.invisibleAnnotations) : null, varInts
                     ), false);
                     break;
                 case "VisibleTypeAnnotations":
                     visitor.visitTypeAnnotations(typeAnnotationPatchReader.readPatch(
                         reader,
-                        Util.nullToEmpty(node.visibleTypeAnnotations)
+                        node != null ? Util.nullToEmpty(node.visibleTypeAnnotations) : null, varInts
                     ), true);
                     break;
                 case "InvisibleTypeAnnotations":
                     visitor.visitTypeAnnotations(typeAnnotationPatchReader.readPatch(
                         reader,
-                        Util.nullToEmpty(node.invisibleTypeAnnotations)
+                        node != null ? Util.nullToEmpty(node.invisibleTypeAnnotations) : null, varInts
                     ), false);
                     break;
                 case "RecordComponents":
                     visitor.visitRecordComponents(memberNamePatchReader.readPatch(
-                        reader, node.recordComponents != null
-                            ? MemberName.fromRecordComponents(node.recordComponents) : Collections.emptyList()
+                        reader,
+                        node != null ? MemberName.fromRecordComponents(node.recordComponents) : null,
+                        varInts
                     ));
                     for (int j = 0, l = reader.readShort(); j < l; j++) {
                         readRecordComponent(reader, visitor, node);
@@ -241,8 +320,8 @@ public class DiffReader {
                     final String version = readUtf8(reader.pointer() + 4);
                     reader.skip(6);
                     if (name != null) {
-                        ModuleNode moduleNode = node.module;
-                        if (moduleNode == null) {
+                        ModuleNode moduleNode = node != null ? node.module : null;
+                        if (moduleNode == null && node != null) {
                             moduleNode = new ModuleNode(name, access, version); // Temporary
                         }
                         readModule(reader, visitor.visitModule(name, access, version), moduleNode);
@@ -254,7 +333,7 @@ public class DiffReader {
                         if (reader.readByte() != 0) {
                             visitor.visitCustomAttribute(
                                 attributeName.substring(6),
-                                Arrays.copyOfRange(contents, reader.pointer(), reader.pointer() + attributeLength - 1)
+                                copyBytes(reader.pointer(), attributeLength - 1)
                             );
                         } else {
                             visitor.visitCustomAttribute(attributeName.substring(6), null);
@@ -267,7 +346,8 @@ public class DiffReader {
 
         visitor.visitFields(memberNamePatchReader.readPatch(
             reader,
-            node.fields != null ? MemberName.fromFields(node.fields) : Collections.emptyList()
+            node != null ? MemberName.fromFields(node.fields) : null,
+            varInts
         ));
         for (int i = 0, l = reader.readShort(); i < l; i++) {
             readField(reader, visitor, node);
@@ -275,7 +355,8 @@ public class DiffReader {
 
         visitor.visitMethods(memberNamePatchReader.readPatch(
             reader,
-            node.methods != null ? MemberName.fromMethods(node.methods) : Collections.emptyList()
+            node != null ? MemberName.fromMethods(node.methods) : null,
+            varInts
         ));
         for (int i = 0, l = reader.readShort(); i < l; i++) {
             readMethod(reader, visitor, node);
@@ -285,28 +366,75 @@ public class DiffReader {
         context.remove();
     }
 
-    private void readMethod(ByteReader reader, DiffVisitor diffVisitor, ClassNode classNode) {
-        final int access = reader.readInt();
+    /**
+     * @return The names of the fields that have an entry in this diff. Fields not in this set are either unchanged or
+     *         removed, and are never passed to {@link DiffVisitor#visitField}.
+     */
+    public Set<MemberName> getPatchedFields() {
+        if (unchanged) {
+            return Collections.emptySet();
+        }
+        final ByteReader reader = new ByteReader(contents, getFirstAttributeOffset() - 2);
+        skipAttributes(reader);
+        return readPatchedMembers(reader, false);
+    }
+
+    /**
+     * @return The names of the methods that have an entry in this diff. Methods not in this set are either unchanged
+     *         or removed, and are never passed to {@link DiffVisitor#visitMethod}.
+     */
+    public Set<MemberName> getPatchedMethods() {
+        if (unchanged) {
+            return Collections.emptySet();
+        }
+        final ByteReader reader = new ByteReader(contents, getFirstAttributeOffset() - 2);
+        skipAttributes(reader);
+        readPatchedMembers(reader, false);
+        return readPatchedMembers(reader, true);
+    }
+
+    private Set<MemberName> readPatchedMembers(ByteReader reader, boolean methods) {
+        skipIndexPatch(reader);
+        final int count = reader.readShort();
+        final Set<MemberName> result = new LinkedHashSet<>(count);
+        for (int i = 0; i < count; i++) {
+            readVarIntOrInt(reader);
+            result.add(new MemberName(readUtf8(reader.pointer()), readUtf8(reader.pointer() + 2)));
+            reader.skip(6);
+            if (methods) {
+                skipIndexPatch(reader); // Exceptions
+            } else {
+                reader.skip(2); // ConstantValue
+            }
+            skipAttributes(reader);
+        }
+        return result;
+    }
+
+    private void readMethod(ByteReader reader, DiffVisitor diffVisitor, @Nullable ClassNode classNode) {
+        final int access = readVarIntOrInt(reader);
         final String name = readUtf8(reader.pointer());
         final String descriptor = readUtf8(reader.pointer() + 2);
         final String signature = readUtf8(reader.pointer() + 4);
         reader.skip(6);
 
         MethodNode node = null;
-        if (classNode.methods != null) {
-            for (final MethodNode test : classNode.methods) {
-                if (test.name.equals(name) && test.desc.equals(descriptor)) {
-                    node = test;
-                    break;
+        if (classNode != null) {
+            if (classNode.methods != null) {
+                for (final MethodNode test : classNode.methods) {
+                    if (test.name.equals(name) && test.desc.equals(descriptor)) {
+                        node = test;
+                        break;
+                    }
                 }
             }
-        }
-        if (node == null) {
-            node = new MethodNode(access, name, descriptor, signature, null);
+            if (node == null) {
+                node = new MethodNode(access, name, descriptor, signature, null);
+            }
         }
 
         final Patch<String> exceptions = classPatchReader.readPatch(
-            reader, Util.nullToEmpty(node.exceptions)
+            reader, node != null ? Util.nullToEmpty(node.exceptions) : null, varInts
         );
         final MethodDiffVisitor visitor = diffVisitor.visitMethod(access, name, descriptor, signature, exceptions);
 
@@ -324,25 +452,25 @@ public class DiffReader {
                     case "VisibleAnnotations":
                         visitor.visitAnnotations(annotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.visibleAnnotations)
+                            node != null ? Util.nullToEmpty(node.visibleAnnotations) : null, varInts
                         ), true);
                         break;
                     case "InvisibleAnnotations":
                         visitor.visitAnnotations(annotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.invisibleAnnotations)
+                            node != null ? Util.nullToEmpty(node.invisibleAnnotations) : null, varInts
                         ), false);
                         break;
                     case "VisibleTypeAnnotations":
                         visitor.visitTypeAnnotations(typeAnnotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.visibleTypeAnnotations)
+                            node != null ? Util.nullToEmpty(node.visibleTypeAnnotations) : null, varInts
                         ), true);
                         break;
                     case "InvisibleTypeAnnotations":
                         visitor.visitTypeAnnotations(typeAnnotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.invisibleTypeAnnotations)
+                            node != null ? Util.nullToEmpty(node.invisibleTypeAnnotations) : null, varInts
                         ), false);
                         break;
                     case "AnnotationDefault":
@@ -360,7 +488,7 @@ public class DiffReader {
                         final List<Patch<AnnotationNode>> patches = new ArrayList<>(paramCount);
                         for (int j = 0; j < paramCount; j++) {
                             patches.add(annotationPatchReader.readPatch(
-                                reader, Util.getListFromArray(node.visibleParameterAnnotations, j)
+                                reader, node != null ? Util.getListFromArray(node.visibleParameterAnnotations, j) : null, varInts
                             ));
                         }
                         visitor.visitParameterAnnotations(annotableCount, patches, true);
@@ -372,7 +500,7 @@ public class DiffReader {
                         final List<Patch<AnnotationNode>> patches = new ArrayList<>(paramCount);
                         for (int j = 0; j < paramCount; j++) {
                             patches.add(annotationPatchReader.readPatch(
-                                reader, Util.getListFromArray(node.invisibleParameterAnnotations, j)
+                                reader, node != null ? Util.getListFromArray(node.invisibleParameterAnnotations, j) : null, varInts
                             ));
                         }
                         visitor.visitParameterAnnotations(annotableCount, patches, false);
@@ -382,33 +510,26 @@ public class DiffReader {
                         visitor.visitParameters(new PatchReader<>(reader1 -> {
                             reader1.skip(2);
                             return new ParameterNode(readUtf8(reader1.pointer() - 2), reader1.readInt());
-                        }).readPatch(reader, Util.nullToEmpty(node.parameters)));
+                        }).readPatch(reader, node != null ? Util.nullToEmpty(node.parameters) : null, varInts));
                         break;
                     case "Maxs":
                         visitor.visitMaxs(reader.readShort(), reader.readShort());
                         break;
                     case "Insns": {
-                        final int unpatchedInsnCount = reader.readShort();
+                        final int unpatchedInsnCount = readInsnIndex(reader);
+                        final InsnListSnapshot originalInsns = node != null ? new InsnListSnapshot(node.instructions) : null;
                         final Patch<AbstractInsnNode> patch = new PatchReader<>(this::readInsn)
-                            .readPatch(reader, new InsnListAdapter(node.instructions));
-                        final MethodNode fNode = node;
-                        visitor.visitInsns(unpatchedInsnCount, patch, Util.lazy(() -> { // We need to apply the patch to calculate this
-                            final Map<LabelNode, LabelNode> clonedLabels = new HashMap<>();
-                            for (final AbstractInsnNode insn : fNode.instructions) {
-                                if (insn instanceof LabelNode) {
-                                    clonedLabels.put((LabelNode)insn, new LabelNode());
-                                }
-                            }
-
-                            final List<AbstractInsnNode> clonedInsns = new ArrayList<>(fNode.instructions.size());
-                            for (final AbstractInsnNode insn : fNode.instructions) {
-                                clonedInsns.add(insn.clone(clonedLabels));
-                            }
-
-                            final InsnList newInsns = Util.asInsnList(Util.applyPatchUnchecked(patch, clonedInsns));
-
-                            return new LabelMap(newInsns);
-                        }));
+                            .readPatch(reader, originalInsns, varInts);
+                        if (originalInsns == null) {
+                            // Every label that a read insn refers to is synthetic, so copying it only needs their ids
+                            visitor.visitInsns(unpatchedInsnCount, patch, () -> LabelMap.EMPTY);
+                            break;
+                        }
+                        // We need to apply the patch to calculate this. Only the positions of the labels matter, so the
+                        // snapshot doesn't need to be cloned, and the visitor may modify node.instructions in the meantime.
+                        visitor.visitInsns(unpatchedInsnCount, patch, Util.lazy(
+                            () -> new LabelMap(Util.applyPatchUnchecked(patch, originalInsns))
+                        ));
                         break;
                     }
                     case "LocalVariables": {
@@ -420,8 +541,8 @@ public class DiffReader {
                                 readUtf8(reader.pointer() - 6),
                                 readUtf8(reader.pointer() - 4),
                                 readUtf8(reader.pointer() - 2),
-                                new SyntheticLabelNode(reader.readShort()),
-                                new SyntheticLabelNode(reader.readShort()),
+                                new SyntheticLabelNode(readInsnIndex(reader)),
+                                new SyntheticLabelNode(readInsnIndex(reader)),
                                 reader.readShort()
                             ));
                         }
@@ -433,9 +554,9 @@ public class DiffReader {
                         final List<TryCatchBlockNode> blocks = new ArrayList<>(nBlocks);
                         for (int j = 0; j < nBlocks; j++) {
                             final TryCatchBlockNode block = new TryCatchBlockNode(
-                                new SyntheticLabelNode(reader.readShort()),
-                                new SyntheticLabelNode(reader.readShort()),
-                                new SyntheticLabelNode(reader.readShort()),
+                                new SyntheticLabelNode(readInsnIndex(reader)),
+                                new SyntheticLabelNode(readInsnIndex(reader)),
+                                new SyntheticLabelNode(readInsnIndex(reader)),
                                 readClass(reader.pointer())
                             );
                             reader.skip(2);
@@ -471,13 +592,13 @@ public class DiffReader {
                             final int startCount = reader.readShort();
                             final LabelNode[] start = new LabelNode[startCount];
                             for (int k = 0; k < startCount; k++) {
-                                start[k] = new SyntheticLabelNode(reader.readShort());
+                                start[k] = new SyntheticLabelNode(readInsnIndex(reader));
                             }
 
                             final int endCount = reader.readShort();
                             final LabelNode[] end = new LabelNode[endCount];
                             for (int k = 0; k < endCount; k++) {
-                                end[k] = new SyntheticLabelNode(reader.readShort());
+                                end[k] = new SyntheticLabelNode(readInsnIndex(reader));
                             }
 
                             final int indexCount = reader.readShort();
@@ -503,7 +624,7 @@ public class DiffReader {
                         final int[] indices = new int[nAnnotations];
                         final List<TypeAnnotationNode> annotations = new ArrayList<>(nAnnotations);
                         for (int j = 0; j < nAnnotations; j++) {
-                            indices[j] = reader.readShort();
+                            indices[j] = readInsnIndex(reader);
                             annotations.add(readTypeAnnotation(reader));
                         }
                         visitor.visitInsnAnnotations(indices, annotations, !attrName.startsWith("In"));
@@ -514,7 +635,7 @@ public class DiffReader {
                             if (reader.readByte() != 0) {
                                 visitor.visitCustomAttribute(
                                     attrName.substring(6),
-                                    Arrays.copyOfRange(contents, reader.pointer(), reader.pointer() + attrLength - 1)
+                                    copyBytes(reader.pointer(), attrLength - 1)
                                 );
                             } else {
                                 visitor.visitCustomAttribute(attrName.substring(6), null);
@@ -525,10 +646,14 @@ public class DiffReader {
             }
             reader.pointer(endPos);
         }
+
+        if (visitor != null) {
+            visitor.visitEnd();
+        }
     }
 
-    private void readField(ByteReader reader, DiffVisitor diffVisitor, ClassNode classNode) {
-        final int access = reader.readInt();
+    private void readField(ByteReader reader, DiffVisitor diffVisitor, @Nullable ClassNode classNode) {
+        final int access = readVarIntOrInt(reader);
         final String name = readUtf8(reader.pointer());
         final String descriptor = readUtf8(reader.pointer() + 2);
         final String signature = readUtf8(reader.pointer() + 4);
@@ -540,7 +665,7 @@ public class DiffReader {
         final FieldDiffVisitor visitor = diffVisitor.visitField(access, name, descriptor, signature, constantValue);
 
         FieldNode node = null;
-        if (visitor != null) {
+        if (visitor != null && classNode != null) {
             if (classNode.fields != null) {
                 for (final FieldNode test : classNode.fields) {
                     if (test.name.equals(name) && test.desc.equals(descriptor)) {
@@ -568,25 +693,25 @@ public class DiffReader {
                     case "VisibleAnnotations":
                         visitor.visitAnnotations(annotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.visibleAnnotations)
+                            node != null ? Util.nullToEmpty(node.visibleAnnotations) : null, varInts
                         ), true);
                         break;
                     case "InvisibleAnnotations":
                         visitor.visitAnnotations(annotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.invisibleAnnotations)
+                            node != null ? Util.nullToEmpty(node.invisibleAnnotations) : null, varInts
                         ), false);
                         break;
                     case "VisibleTypeAnnotations":
                         visitor.visitTypeAnnotations(typeAnnotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.visibleTypeAnnotations)
+                            node != null ? Util.nullToEmpty(node.visibleTypeAnnotations) : null, varInts
                         ), true);
                         break;
                     case "InvisibleTypeAnnotations":
                         visitor.visitTypeAnnotations(typeAnnotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.invisibleTypeAnnotations)
+                            node != null ? Util.nullToEmpty(node.invisibleTypeAnnotations) : null, varInts
                         ), false);
                         break;
                     default:
@@ -594,7 +719,7 @@ public class DiffReader {
                             if (reader.readByte() != 0) {
                                 visitor.visitCustomAttribute(
                                     attrName.substring(6),
-                                    Arrays.copyOfRange(contents, reader.pointer(), reader.pointer() + attrLength - 1)
+                                    copyBytes(reader.pointer(), attrLength - 1)
                                 );
                             } else {
                                 visitor.visitCustomAttribute(attrName.substring(6), null);
@@ -605,9 +730,13 @@ public class DiffReader {
             }
             reader.pointer(endPos);
         }
+
+        if (visitor != null) {
+            visitor.visitEnd();
+        }
     }
 
-    private void readModule(ByteReader reader, ModuleDiffVisitor visitor, ModuleNode node) {
+    private void readModule(ByteReader reader, ModuleDiffVisitor visitor, @Nullable ModuleNode node) {
         if (visitor == null) return;
 
         final int attrCount = reader.readShort();
@@ -625,7 +754,7 @@ public class DiffReader {
                     break;
                 case "Packages":
                     visitor.visitPackages(packagePatchReader.readPatch(
-                        reader, Util.nullToEmpty(node.packages)
+                        reader, node != null ? Util.nullToEmpty(node.packages) : null, varInts
                     ));
                     break;
                 case "Requires":
@@ -636,7 +765,7 @@ public class DiffReader {
                             readShort(reader1.pointer() - 4),
                             readUtf8(reader1.pointer() - 2)
                         );
-                    }).readPatch(reader, Util.nullToEmpty(node.requires)));
+                    }).readPatch(reader, node != null ? Util.nullToEmpty(node.requires) : null, varInts));
                     break;
                 case "Exports":
                     visitor.visitExports(new PatchReader<>(reader1 -> {
@@ -649,7 +778,7 @@ public class DiffReader {
                             reader1.skip(2);
                         }
                         return new ModuleExportNode(exports, exportsFlags, exportsTo);
-                    }).readPatch(reader, Util.nullToEmpty(node.exports)));
+                    }).readPatch(reader, node != null ? Util.nullToEmpty(node.exports) : null, varInts));
                     break;
                 case "Opens":
                     visitor.visitOpens(new PatchReader<>(reader1 -> {
@@ -662,10 +791,10 @@ public class DiffReader {
                             reader1.skip(2);
                         }
                         return new ModuleOpenNode(opens, opensFlags, opensTo);
-                    }).readPatch(reader, Util.nullToEmpty(node.opens)));
+                    }).readPatch(reader, node != null ? Util.nullToEmpty(node.opens) : null, varInts));
                     break;
                 case "Uses":
-                    visitor.visitUses(classPatchReader.readPatch(reader, Util.nullToEmpty(node.uses)));
+                    visitor.visitUses(classPatchReader.readPatch(reader, node != null ? Util.nullToEmpty(node.uses) : null, varInts));
                     break;
                 case "Provides":
                     visitor.visitProvides(new PatchReader<>(reader1 -> {
@@ -677,7 +806,7 @@ public class DiffReader {
                             reader1.skip(2);
                         }
                         return new ModuleProvideNode(provides, providesWith);
-                    }).readPatch(reader, Util.nullToEmpty(node.provides)));
+                    }).readPatch(reader, node != null ? Util.nullToEmpty(node.provides) : null, varInts));
                     break;
             }
             reader.pointer(endPos);
@@ -686,7 +815,7 @@ public class DiffReader {
         visitor.visitEnd();
     }
 
-    private void readRecordComponent(ByteReader reader, DiffVisitor diffVisitor, ClassNode classNode) {
+    private void readRecordComponent(ByteReader reader, DiffVisitor diffVisitor, @Nullable ClassNode classNode) {
         final String name = readUtf8(reader.pointer());
         final String descriptor = readUtf8(reader.pointer() + 2);
         final String signature = readUtf8(reader.pointer() + 4);
@@ -695,7 +824,7 @@ public class DiffReader {
         final RecordComponentDiffVisitor visitor = diffVisitor.visitRecordComponent(name, descriptor, signature);
 
         RecordComponentNode node = null;
-        if (visitor != null) {
+        if (visitor != null && classNode != null) {
             if (classNode.recordComponents != null) {
                 for (final RecordComponentNode test : classNode.recordComponents) {
                     if (test.name.equals(name) && test.descriptor.equals(descriptor)) {
@@ -723,25 +852,25 @@ public class DiffReader {
                     case "VisibleAnnotations":
                         visitor.visitAnnotations(annotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.visibleAnnotations)
+                            node != null ? Util.nullToEmpty(node.visibleAnnotations) : null, varInts
                         ), true);
                         break;
                     case "InvisibleAnnotations":
                         visitor.visitAnnotations(annotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.invisibleAnnotations)
+                            node != null ? Util.nullToEmpty(node.invisibleAnnotations) : null, varInts
                         ), false);
                         break;
                     case "VisibleTypeAnnotations":
                         visitor.visitTypeAnnotations(typeAnnotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.visibleTypeAnnotations)
+                            node != null ? Util.nullToEmpty(node.visibleTypeAnnotations) : null, varInts
                         ), true);
                         break;
                     case "InvisibleTypeAnnotations":
                         visitor.visitTypeAnnotations(typeAnnotationPatchReader.readPatch(
                             reader,
-                            Util.nullToEmpty(node.invisibleTypeAnnotations)
+                            node != null ? Util.nullToEmpty(node.invisibleTypeAnnotations) : null, varInts
                         ), false);
                         break;
                     default:
@@ -749,7 +878,7 @@ public class DiffReader {
                             if (reader.readByte() != 0) {
                                 visitor.visitCustomAttribute(
                                     attrName.substring(6),
-                                    Arrays.copyOfRange(contents, reader.pointer(), reader.pointer() + attrLength - 1)
+                                    copyBytes(reader.pointer(), attrLength - 1)
                                 );
                             } else {
                                 visitor.visitCustomAttribute(attrName.substring(6), null);
@@ -766,16 +895,28 @@ public class DiffReader {
         }
     }
 
+    private int readVarIntOrInt(ByteReader reader) {
+        return varInts ? reader.readVarInt() - 1 : reader.readInt();
+    }
+
+    private int readInsnIndex(ByteReader reader) {
+        return varInts ? reader.readVarInt() : reader.readShort();
+    }
+
     private int readInt(int offset) {
-        return ((contents[offset] & 0xff) << 24)
-            | ((contents[offset + 1] & 0xff) << 16)
-            | ((contents[offset + 2] & 0xff) << 8)
-            | (contents[offset + 3] & 0xff);
+        return contents.getInt(offset);
     }
 
     private int readShort(int offset) {
-        return ((contents[offset] & 0xff) << 8)
-            | (contents[offset + 1] & 0xff);
+        return contents.getShort(offset) & 0xffff;
+    }
+
+    private byte[] copyBytes(int offset, int length) {
+        final byte[] result = new byte[length];
+        final ByteBuffer source = contents.duplicate();
+        source.position(offset);
+        source.get(result);
+        return result;
     }
 
     private String readClass(int offset) {
@@ -816,18 +957,18 @@ public class DiffReader {
         int currentOffset = utfOffset;
         final int endOffset = currentOffset + utfLength;
         int strLength = 0;
-        final byte[] input = contents;
+        final ByteBuffer input = contents;
         while (currentOffset < endOffset) {
-            final int currentByte = input[currentOffset++];
+            final int currentByte = input.get(currentOffset++);
             if ((currentByte & 0x80) == 0) {
                 charBuffer[strLength++] = (char)(currentByte & 0x7f);
             } else if ((currentByte & 0xE0) == 0xC0) {
-                charBuffer[strLength++] = (char)(((currentByte & 0x1f) << 6) + (input[currentOffset++] & 0x3f));
+                charBuffer[strLength++] = (char)(((currentByte & 0x1f) << 6) + (input.get(currentOffset++) & 0x3f));
             } else {
                 charBuffer[strLength++] =
                     (char)(((currentByte & 0xf) << 12)
-                        + ((input[currentOffset++] & 0x3f) << 6)
-                        + (input[currentOffset++] & 0x3f)
+                        + ((input.get(currentOffset++) & 0x3f) << 6)
+                        + (input.get(currentOffset++) & 0x3f)
                     );
             }
         }
@@ -852,7 +993,7 @@ public class DiffReader {
     }
 
     private int readElementValue(AnnotationVisitor annotationVisitor, int currentOffset, String elementName) {
-        switch (contents[currentOffset++] & 0xff) {
+        switch (contents.get(currentOffset++) & 0xff) {
             case 'B':
                 annotationVisitor.visit(elementName, (byte)readInt(constantOffsets[readShort(currentOffset)]));
                 currentOffset += 2;
@@ -901,7 +1042,7 @@ public class DiffReader {
                 if (numValues == 0) {
                     return readElementValues(annotationVisitor.visitArray(elementName), currentOffset - 2, false);
                 }
-                switch (contents[currentOffset] & 0xff) {
+                switch (contents.get(currentOffset) & 0xff) {
                     case 'B': {
                         final byte[] values = new byte[numValues];
                         for (int i = 0; i < numValues; i++) {
@@ -988,7 +1129,7 @@ public class DiffReader {
 
     private Object readConst(int constantPoolEntryIndex) {
         final int cpInfoOffset = constantOffsets[constantPoolEntryIndex];
-        switch (contents[cpInfoOffset - 1]) {
+        switch (contents.get(cpInfoOffset - 1)) {
             case Symbol.CONSTANT_INTEGER_TAG:
                 return readInt(cpInfoOffset);
             case Symbol.CONSTANT_FLOAT_TAG:
@@ -1004,13 +1145,13 @@ public class DiffReader {
             case Symbol.CONSTANT_METHOD_TYPE_TAG:
                 return Type.getMethodType(readUtf8(cpInfoOffset));
             case Symbol.CONSTANT_METHOD_HANDLE_TAG: {
-                final int referenceKind = contents[cpInfoOffset] & 0xff;
+                final int referenceKind = contents.get(cpInfoOffset) & 0xff;
                 final int referenceCpInfoOffset = constantOffsets[readShort(cpInfoOffset + 1)];
                 final int nameAndTypeCpInfoOffset = constantOffsets[readShort(referenceCpInfoOffset + 2)];
                 final String owner = readClass(referenceCpInfoOffset);
                 final String name = readUtf8(nameAndTypeCpInfoOffset);
                 final String descriptor = readUtf8(nameAndTypeCpInfoOffset + 2);
-                final boolean isInterface = contents[referenceCpInfoOffset - 1] == Symbol.CONSTANT_INTERFACE_METHODREF_TAG;
+                final boolean isInterface = contents.get(referenceCpInfoOffset - 1) == Symbol.CONSTANT_INTERFACE_METHODREF_TAG;
                 return new Handle(referenceKind, owner, name, descriptor, isInterface);
             }
             case Symbol.CONSTANT_DYNAMIC_TAG:
@@ -1025,18 +1166,30 @@ public class DiffReader {
     }
 
     private int getFirstAttributeOffset() {
-        final int deltaCount = readShort(startPos + 14);
-        int offset = startPos + 16;
+        final ByteReader reader = new ByteReader(contents, classNamesPos + 6);
+        skipIndexPatch(reader); // Interfaces
+        return reader.pointer() + 2;
+    }
+
+    /**
+     * Skips a patch whose elements are all constant pool indices, such as a class name or member name patch.
+     */
+    private void skipIndexPatch(ByteReader reader) {
+        final int deltaCount = PatchReader.readIndex(reader, varInts);
         for (int i = 0; i < deltaCount; i++) {
-            switch (DeltaType.values()[contents[offset++]]) {
+            switch (DeltaType.values()[reader.readByte()]) {
                 case CHANGE:
-                    offset += 6 + 2 * readShort(offset + 4);
+                    PatchReader.readIndex(reader, varInts);
+                    PatchReader.readIndex(reader, varInts);
+                    reader.skip(2 * PatchReader.readIndex(reader, varInts));
                     break;
                 case DELETE:
-                    offset += 4;
+                    PatchReader.readIndex(reader, varInts);
+                    PatchReader.readIndex(reader, varInts);
                     break;
                 case INSERT:
-                    offset += 4 + 2 * readShort(offset + 2);
+                    PatchReader.readIndex(reader, varInts);
+                    reader.skip(2 * PatchReader.readIndex(reader, varInts));
                     break;
                 case EQUAL:
                     break;
@@ -1044,7 +1197,13 @@ public class DiffReader {
                     throw new IllegalArgumentException();
             }
         }
-        return offset + 2;
+    }
+
+    private void skipAttributes(ByteReader reader) {
+        for (int i = reader.readShort(); i > 0; i--) {
+            reader.skip(2);
+            reader.skip(reader.readInt());
+        }
     }
 
     private int[] readBsmAttribute() {
@@ -1134,9 +1293,9 @@ public class DiffReader {
         }
         context.currentTypeAnnotationTarget = targetType;
         // Parse and store the target_path structure.
-        int pathLength = contents[currentOffset] & 0xff;
+        int pathLength = contents.get(currentOffset) & 0xff;
         context.currentTypeAnnotationTargetPath =
-            pathLength == 0 ? null : ReflectUtils.newTypePath(contents, currentOffset);
+            pathLength == 0 ? null : ReflectUtils.newTypePath(copyBytes(currentOffset, 1 + 2 * pathLength), 0);
         // Return the start offset of the rest of the type_annotation structure.
         return currentOffset + 1 + 2 * pathLength;
     }
@@ -1405,7 +1564,7 @@ public class DiffReader {
                 }
                 return new MethodInsnNode(
                     opcode, owner, name, descriptor,
-                    contents[cpInfoOffset - 1] == Symbol.CONSTANT_INTERFACE_METHODREF_TAG
+                    contents.get(cpInfoOffset - 1) == Symbol.CONSTANT_INTERFACE_METHODREF_TAG
                 );
             }
             case Opcodes.INVOKEDYNAMIC: {
@@ -1483,7 +1642,7 @@ public class DiffReader {
                         }
                     }
                     case AbstractInsnNode.LINE:
-                        return new LineNumberNode(reader.readShort(), new SyntheticLabelNode(reader.readShort()));
+                        return new LineNumberNode(reader.readShort(), new SyntheticLabelNode(readInsnIndex(reader)));
                     default:
                         throw new IllegalArgumentException("Unknown special insn type " + specialType);
                 }
@@ -1516,7 +1675,7 @@ public class DiffReader {
                 reader.skip(2);
                 return readClass(reader.pointer() - 2);
             case Frame.ITEM_UNINITIALIZED:
-                return new SyntheticLabelNode(reader.readShort());
+                return new SyntheticLabelNode(readInsnIndex(reader));
             default:
                 throw new IllegalArgumentException("Unknown frame object type tag " + tag);
         }
@@ -170,4 +170,13 @@ public abstract class DiffVisitor implements AnnotatedElementVisitor, CustomAttr
             delegate.visitEnd();
         }
     }
+
+    /**
+     * Visits a class that is known to be unchanged, in place of every other visit method. By default, this visits an
+     * empty diff.
+     */
+    public void visitUnchanged(int diffVersion) {
+        visit(diffVersion, -1, -1, null, null, null, null);
+        visitEnd();
+    }
 }
@@ -7,6 +7,11 @@ import org.objectweb.asm.ByteVector;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import java.util.function.Supplier;
 
@@ -30,6 +35,8 @@ public class DiffWriter extends DiffVisitor {
     );
 
     private int diffVersion;
+    private boolean varInts;
+    private boolean unchanged;
     private int classVersion;
     private int access;
     private int name;
@@ -91,6 +98,7 @@ public class DiffWriter extends DiffVisitor {
         super.visit(diffVersion, classVersion, access, name, signature, superName, interfaces);
 
         this.diffVersion = diffVersion;
+        this.varInts = diffVersion >= DiffConstants.V2;
         this.classVersion = classVersion;
         this.access = access;
         this.name = name != null ? symbolTable.addConstantClass(name).index : 0;
@@ -98,12 +106,25 @@ public class DiffWriter extends DiffVisitor {
         this.superName = superName != null ? symbolTable.addConstantClass(superName).index : 0;
 
         if (interfaces != null) {
-            classPatchWriter.write(this.interfaces = new ByteVector(), interfaces);
+            classPatchWriter.write(this.interfaces = new ByteVector(), interfaces, varInts);
         } else {
             this.interfaces = null;
         }
     }
 
+    @Override
+    public void visitUnchanged(int diffVersion) {
+        if (diffVersion < DiffConstants.V2) {
+            super.visitUnchanged(diffVersion);
+            return;
+        }
+        if (getDelegate() != null) {
+            getDelegate().visitUnchanged(diffVersion);
+        }
+        this.diffVersion = diffVersion;
+        unchanged = true;
+    }
+
     @Override
     public void visitSource(@Nullable String source, @Nullable String debug) {
         super.visitSource(source, debug);
@@ -121,7 +142,7 @@ public class DiffWriter extends DiffVisitor {
                 .putShort(value.outerName != null ? symbolTable.addConstantClass(value.outerName).index : 0)
                 .putShort(value.innerName != null ? symbolTable.addConstantUtf8(value.innerName) : 0)
                 .putShort(value.access)
-        ).write(innerClasses = new ByteVector(), patch);
+        ).write(innerClasses = new ByteVector(), patch, varInts);
     }
 
     @Override
@@ -148,14 +169,14 @@ public class DiffWriter extends DiffVisitor {
     public void visitNestMembers(Patch<String> patch) {
         super.visitNestMembers(patch);
 
-        classPatchWriter.write(nestMembers = new ByteVector(), patch);
+        classPatchWriter.write(nestMembers = new ByteVector(), patch, varInts);
     }
 
     @Override
     public void visitPermittedSubclasses(Patch<String> patch) {
         super.visitPermittedSubclasses(patch);
 
-        classPatchWriter.write(permittedSubclasses = new ByteVector(), patch);
+        classPatchWriter.write(permittedSubclasses = new ByteVector(), patch, varInts);
     }
 
     @Override
@@ -168,7 +189,7 @@ public class DiffWriter extends DiffVisitor {
         } else {
             invisibleAnnotations = vector;
         }
-        annotationPatchWriter.write(vector, patch);
+        annotationPatchWriter.write(vector, patch, varInts);
     }
 
     @Override
@@ -181,14 +202,14 @@ public class DiffWriter extends DiffVisitor {
         } else {
             invisibleTypeAnnotations = vector;
         }
-        typeAnnotationPatchWriter.write(vector, patch);
+        typeAnnotationPatchWriter.write(vector, patch, varInts);
     }
 
     @Override
     public void visitRecordComponents(Patch<MemberName> patch) {
         super.visitRecordComponents(patch);
 
-        memberNamePatchWriter.write(recordComponentsPatch = new ByteVector(), patch);
+        memberNamePatchWriter.write(recordComponentsPatch = new ByteVector(), patch, varInts);
     }
 
     @Override
@@ -213,7 +234,7 @@ public class DiffWriter extends DiffVisitor {
                 super.visitAnnotations(patch, visible);
 
                 beginAttr((visible ? "Visible" : "Invisible") + "Annotations");
-                annotationPatchWriter.write(vector, patch);
+                annotationPatchWriter.write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -222,7 +243,7 @@ public class DiffWriter extends DiffVisitor {
                 super.visitTypeAnnotations(patch, visible);
 
                 beginAttr((visible ? "Visible" : "Invisible") + "TypeAnnotations");
-                typeAnnotationPatchWriter.write(vector, patch);
+                typeAnnotationPatchWriter.write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -299,7 +320,7 @@ public class DiffWriter extends DiffVisitor {
                 super.visitPackages(patch);
 
                 beginAttr("Packages");
-                packagePatchWriter.write(vector, patch);
+                packagePatchWriter.write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -312,7 +333,7 @@ public class DiffWriter extends DiffVisitor {
                     vec.putShort(symbolTable.addConstantModule(value.module).index);
                     vec.putShort(value.access);
                     vec.putShort(value.version != null ? symbolTable.addConstantUtf8(value.version) : 0);
-                }).write(vector, patch);
+                }).write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -332,7 +353,7 @@ public class DiffWriter extends DiffVisitor {
                     } else {
                         vec.putShort(0);
                     }
-                }).write(vector, patch);
+                }).write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -352,7 +373,7 @@ public class DiffWriter extends DiffVisitor {
                     } else {
                         vec.putShort(0);
                     }
-                }).write(vector, patch);
+                }).write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -361,7 +382,7 @@ public class DiffWriter extends DiffVisitor {
                 super.visitUses(patch);
 
                 beginAttr("Uses");
-                classPatchWriter.write(vector, patch);
+                classPatchWriter.write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -380,7 +401,7 @@ public class DiffWriter extends DiffVisitor {
                     } else {
                         vec.putShort(0);
                     }
-                }).write(vector, patch);
+                }).write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -423,7 +444,7 @@ public class DiffWriter extends DiffVisitor {
     public void visitFields(Patch<MemberName> patch) {
         super.visitFields(patch);
 
-        memberNamePatchWriter.write(fieldsPatch = new ByteVector(), patch);
+        memberNamePatchWriter.write(fieldsPatch = new ByteVector(), patch, varInts);
     }
 
     @Override
@@ -439,7 +460,7 @@ public class DiffWriter extends DiffVisitor {
         final ByteVector vector = new ByteVector();
         fields.add(vector);
 
-        vector.putInt(access);
+        putVarIntOrInt(vector, access);
         vector.putShort(symbolTable.addConstantUtf8(name));
         vector.putShort(symbolTable.addConstantUtf8(descriptor));
         vector.putShort(signature != null ? symbolTable.addConstantUtf8(signature) : 0);
@@ -456,7 +477,7 @@ public class DiffWriter extends DiffVisitor {
                 super.visitAnnotations(patch, visible);
 
                 beginAttr((visible ? "Visible" : "Invisible") + "Annotations");
-                annotationPatchWriter.write(vector, patch);
+                annotationPatchWriter.write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -465,7 +486,7 @@ public class DiffWriter extends DiffVisitor {
                 super.visitTypeAnnotations(patch, visible);
 
                 beginAttr((visible ? "Visible" : "Invisible") + "TypeAnnotations");
-                typeAnnotationPatchWriter.write(vector, patch);
+                typeAnnotationPatchWriter.write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -516,7 +537,7 @@ public class DiffWriter extends DiffVisitor {
     public void visitMethods(Patch<MemberName> patch) {
         super.visitMethods(patch);
 
-        memberNamePatchWriter.write(methodsPatch = new ByteVector(), patch);
+        memberNamePatchWriter.write(methodsPatch = new ByteVector(), patch, varInts);
     }
 
     @Override
@@ -532,11 +553,11 @@ public class DiffWriter extends DiffVisitor {
         final ByteVector vector = new ByteVector();
         methods.add(vector);
 
-        vector.putInt(access);
+        putVarIntOrInt(vector, access);
         vector.putShort(symbolTable.addConstantUtf8(name));
         vector.putShort(symbolTable.addConstantUtf8(descriptor));
         vector.putShort(signature != null ? symbolTable.addConstantUtf8(signature) : 0);
-        classPatchWriter.write(vector, exceptions);
+        classPatchWriter.write(vector, exceptions, varInts);
 
         vector.putShort(0);
         return new MethodDiffVisitor(delegate) {
@@ -551,7 +572,7 @@ public class DiffWriter extends DiffVisitor {
                 super.visitAnnotations(patch, visible);
 
                 beginAttr((visible ? "Visible" : "Invisible") + "Annotations");
-                annotationPatchWriter.write(vector, patch);
+                annotationPatchWriter.write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -560,7 +581,7 @@ public class DiffWriter extends DiffVisitor {
                 super.visitTypeAnnotations(patch, visible);
 
                 beginAttr((visible ? "Visible" : "Invisible") + "TypeAnnotations");
-                typeAnnotationPatchWriter.write(vector, patch);
+                typeAnnotationPatchWriter.write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -586,7 +607,7 @@ public class DiffWriter extends DiffVisitor {
                 beginAttr((visible ? "Visible" : "Invisible") + "ParameterAnnotations");
                 vector.putByte(annotableCount);
                 for (final Patch<AnnotationNode> patch : patches) {
-                    annotationPatchWriter.write(vector, patch);
+                    annotationPatchWriter.write(vector, patch, varInts);
                 }
                 endAttr();
             }
@@ -598,7 +619,7 @@ public class DiffWriter extends DiffVisitor {
                 beginAttr("MethodParameters");
                 new PatchWriter<ParameterNode>((vec, value) ->
                     vec.putShort(symbolTable.addConstantUtf8(value.name)).putInt(value.access)
-                ).write(vector, parameters);
+                ).write(vector, parameters, varInts);
                 endAttr();
             }
 
@@ -632,10 +653,10 @@ public class DiffWriter extends DiffVisitor {
 
                 beginAttr("Insns");
                 labelMap = patchedLabelMap.get();
-                vector.putShort(unpatchedInsnCount);
+                putInsnIndex(vector, unpatchedInsnCount);
                 new PatchWriter<AbstractInsnNode>(
                     (vec, value) -> writeInsn(vec, value, labelMap)
-                ).write(vector, patch);
+                ).write(vector, patch, varInts);
                 endAttr();
             }
 
@@ -658,17 +679,17 @@ public class DiffWriter extends DiffVisitor {
                     useMap = labelMap != null ? labelMap : new LabelMap();
                 }
 
-                vector.putShort(symbolTable.addConstantUtf8("LocalVariables")).putInt(2 + 12 * newLocals.size());
+                beginAttr("LocalVariables");
                 vector.putShort(newLocals.size());
                 for (final LocalVariableNode variable : newLocals) {
                     vector.putShort(symbolTable.addConstantUtf8(variable.name));
                     vector.putShort(symbolTable.addConstantUtf8(variable.desc));
                     vector.putShort(variable.signature != null ? symbolTable.addConstantUtf8(variable.signature) : 0);
-                    vector.putShort(useMap.getId(variable.start));
-                    vector.putShort(useMap.getId(variable.end));
+                    putInsnIndex(vector, useMap.getId(variable.start));
+                    putInsnIndex(vector, useMap.getId(variable.end));
                     vector.putShort(variable.index);
                 }
-                attributeCount++;
+                endAttr();
             }
 
             @Override
@@ -693,9 +714,9 @@ public class DiffWriter extends DiffVisitor {
                 beginAttr("TryCatchBlocks");
                 vector.putShort(newBlocks.size());
                 for (final TryCatchBlockNode block : newBlocks) {
-                    vector.putShort(useMap.getId(block.start));
-                    vector.putShort(useMap.getId(block.end));
-                    vector.putShort(useMap.getId(block.handler));
+                    putInsnIndex(vector, useMap.getId(block.start));
+                    putInsnIndex(vector, useMap.getId(block.end));
+                    putInsnIndex(vector, useMap.getId(block.handler));
                     vector.putShort(block.type != null ? symbolTable.addConstantClass(block.type).index : 0);
 
                     if (block.invisibleTypeAnnotations != null) {
@@ -746,12 +767,12 @@ public class DiffWriter extends DiffVisitor {
 
                     vector.putShort(annotation.start.size());
                     for (final LabelNode start : annotation.start) {
-                        vector.putShort(useMap.getId(start));
+                        putInsnIndex(vector, useMap.getId(start));
                     }
 
                     vector.putShort(annotation.end.size());
                     for (final LabelNode end : annotation.end) {
-                        vector.putShort(useMap.getId(end));
+                        putInsnIndex(vector, useMap.getId(end));
                     }
 
                     vector.putShort(annotation.index.size());
@@ -769,7 +790,7 @@ public class DiffWriter extends DiffVisitor {
                 beginAttr((visible ? "Visible" : "Invisible") + "InsnAnnotations");
                 vector.putShort(indices.length);
                 for (int i = 0; i < indices.length; i++) {
-                    vector.putShort(indices[i]);
+                    putInsnIndex(vector, indices[i]);
                     writeTypeAnnotation(vector, annotations.get(i), false);
                 }
                 endAttr();
@@ -804,10 +825,65 @@ public class DiffWriter extends DiffVisitor {
     }
 
     public byte[] toByteArray() {
-        final ByteVector result = new ByteVector();
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        final int[] size = new int[1];
+        try {
+            write(new DiffOutput() {
+                @Override
+                protected void write(byte[] data, int offset, int length) {
+                    chunks.add(ByteBuffer.wrap(data, offset, length));
+                    size[0] += length;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final byte[] result = new byte[size[0]];
+        int position = 0;
+        for (final ByteBuffer chunk : chunks) {
+            final int length = chunk.remaining();
+            chunk.get(result, position, length);
+            position += length;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the diff straight to {@code output}, without building it in memory first. {@code output} is not closed.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        write(new DiffOutput() {
+            @Override
+            protected void write(byte[] data, int offset, int length) throws IOException {
+                output.write(data, offset, length);
+            }
+        });
+    }
 
+    /**
+     * Writes the diff straight to {@code output}, without building it in memory first. {@code output} is not closed.
+     */
+    public void writeTo(WritableByteChannel output) throws IOException {
+        write(new DiffOutput() {
+            @Override
+            protected void write(byte[] data, int offset, int length) throws IOException {
+                final ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+            }
+        });
+    }
+
+    private void write(DiffOutput result) throws IOException {
         result.putInt(DiffConstants.MAGIC);
         result.putShort(diffVersion);
+        if (unchanged) {
+            // An empty constant pool, which a real diff never has, marks an unchanged class
+            result.putShort(0);
+            result.flush();
+            return;
+        }
 
         int attributeCount = customAttributes.size();
         if (symbolTable.computeBootstrapMethodsSize() > 0) {
@@ -864,16 +940,20 @@ public class DiffWriter extends DiffVisitor {
 
         symbolTable.putConstantPool(result);
 
-        result.putInt(classVersion);
-        result.putInt(access);
+        if (varInts) {
+            // Stored plus one, like the other version and access values
+            result.putVarInt(classVersion + 1).putVarInt(access + 1);
+        } else {
+            result.putInt(classVersion).putInt(access);
+        }
         result.putShort(name);
         result.putShort(signature);
         result.putShort(superName);
 
         if (interfaces == null) {
-            result.putShort(0);
+            putEmptyPatch(result);
         } else {
-            result.putByteArray(ReflectUtils.getByteVectorData(interfaces), 0, interfaces.size());
+            result.put(interfaces);
         }
 
         result.putShort(attributeCount);
@@ -884,7 +964,7 @@ public class DiffWriter extends DiffVisitor {
         }
         if (innerClasses != null) {
             result.putShort(symbolTable.addConstantUtf8("InnerClasses")).putInt(innerClasses.size());
-            result.putByteArray(ReflectUtils.getByteVectorData(innerClasses), 0, innerClasses.size());
+            result.put(innerClasses);
         }
         if (outerClass != 0 || outerMethod != 0 || outerMethodDesc != 0) {
             result.putShort(symbolTable.addConstantUtf8("OuterClass")).putInt(6);
@@ -896,34 +976,34 @@ public class DiffWriter extends DiffVisitor {
         }
         if (nestMembers != null) {
             result.putShort(symbolTable.addConstantUtf8("NestMembers")).putInt(nestMembers.size());
-            result.putByteArray(ReflectUtils.getByteVectorData(nestMembers), 0, nestMembers.size());
+            result.put(nestMembers);
         }
         if (permittedSubclasses != null) {
             result.putShort(symbolTable.addConstantUtf8("PermittedSubclasses")).putInt(permittedSubclasses.size());
-            result.putByteArray(ReflectUtils.getByteVectorData(permittedSubclasses), 0, permittedSubclasses.size());
+            result.put(permittedSubclasses);
         }
         if (visibleAnnotations != null) {
             result.putShort(symbolTable.addConstantUtf8("VisibleAnnotations")).putInt(visibleAnnotations.size());
-            result.putByteArray(ReflectUtils.getByteVectorData(visibleAnnotations), 0, visibleAnnotations.size());
+            result.put(visibleAnnotations);
         }
         if (invisibleAnnotations != null) {
             result.putShort(symbolTable.addConstantUtf8("InvisibleAnnotations")).putInt(invisibleAnnotations.size());
-            result.putByteArray(ReflectUtils.getByteVectorData(invisibleAnnotations), 0, invisibleAnnotations.size());
+            result.put(invisibleAnnotations);
         }
         if (visibleTypeAnnotations != null) {
             result.putShort(symbolTable.addConstantUtf8("VisibleTypeAnnotations")).putInt(visibleTypeAnnotations.size());
-            result.putByteArray(ReflectUtils.getByteVectorData(visibleTypeAnnotations), 0, visibleTypeAnnotations.size());
+            result.put(visibleTypeAnnotations);
         }
         if (invisibleTypeAnnotations != null) {
             result.putShort(symbolTable.addConstantUtf8("InvisibleTypeAnnotations")).putInt(invisibleTypeAnnotations.size());
-            result.putByteArray(ReflectUtils.getByteVectorData(invisibleTypeAnnotations), 0, invisibleTypeAnnotations.size());
+            result.put(invisibleTypeAnnotations);
         }
         if (recordComponentsPatch != null || !recordComponents.isEmpty()) {
             int size = 0;
             if (recordComponentsPatch != null) {
                 size += recordComponentsPatch.size();
             } else {
-                size += 2;
+                size += varInts ? 1 : 2;
             }
             size += 2;
             for (final ByteVector component : recordComponents) {
@@ -931,18 +1011,18 @@ public class DiffWriter extends DiffVisitor {
             }
             result.putShort(symbolTable.addConstantUtf8("RecordComponents")).putInt(size);
             if (recordComponentsPatch != null) {
-                result.putByteArray(ReflectUtils.getByteVectorData(recordComponentsPatch), 0, recordComponentsPatch.size());
+                result.put(recordComponentsPatch);
             } else {
-                result.putShort(0);
+                putEmptyPatch(result);
             }
             result.putShort(recordComponents.size());
             for (final ByteVector component : recordComponents) {
-                result.putByteArray(ReflectUtils.getByteVectorData(component), 0, component.size());
+                result.put(component);
             }
         }
         if (module != null) {
             result.putShort(symbolTable.addConstantUtf8("Module")).putInt(module.size());
-            result.putByteArray(ReflectUtils.getByteVectorData(module), 0, module.size());
+            result.put(module);
         }
         for (final Map.Entry<Integer, byte @Nullable []> entry : customAttributes.entrySet()) {
             result.putShort(entry.getKey());
@@ -952,31 +1032,68 @@ public class DiffWriter extends DiffVisitor {
             } else {
                 result.putInt(value.length + 1)
                     .putByte(1)
-                    .putByteArray(value, 0, value.length);
+                    .put(value, 0, value.length);
             }
         }
 
         if (fieldsPatch != null) {
-            result.putByteArray(ReflectUtils.getByteVectorData(fieldsPatch), 0, fieldsPatch.size());
+            result.put(fieldsPatch);
         } else {
-            result.putShort(0);
+            putEmptyPatch(result);
         }
         result.putShort(fields.size());
         for (final ByteVector field : fields) {
-            result.putByteArray(ReflectUtils.getByteVectorData(field), 0, field.size());
+            result.put(field);
         }
 
         if (methodsPatch != null) {
-            result.putByteArray(ReflectUtils.getByteVectorData(methodsPatch), 0, methodsPatch.size());
+            result.put(methodsPatch);
         } else {
-            result.putShort(0);
+            putEmptyPatch(result);
         }
         result.putShort(methods.size());
         for (final ByteVector method : methods) {
-            result.putByteArray(ReflectUtils.getByteVectorData(method), 0, method.size());
+            result.put(method);
         }
+        result.flush();
+    }
 
-        return Arrays.copyOf(ReflectUtils.getByteVectorData(result), result.size());
+    /**
+     * Puts a class version or access value, which is -1 if unchanged. Since {@link DiffConstants#V2}, these are stored
+     * plus one, so that the common -1 takes a single byte.
+     */
+    private void putVarIntOrInt(ByteVector vector, int value) {
+        if (varInts) {
+            Util.putVarInt(vector, value + 1);
+        } else {
+            vector.putInt(value);
+        }
+    }
+
+    /**
+     * Puts an insn index, label id or insn count. These can exceed 65535 in large generated methods, which only
+     * {@link DiffConstants#V2} can encode.
+     */
+    private void putInsnIndex(ByteVector vector, int value) {
+        if (varInts) {
+            Util.putVarInt(vector, value);
+        } else if (value > 0xffff) {
+            throw new IllegalArgumentException(
+                "Insn index " + value + " is too large for class diff version " + diffVersion +
+                ". Use version " + DiffConstants.V2 + " or later."
+            );
+        } else {
+            vector.putShort(value);
+        }
+    }
+
+    private void putEmptyPatch(DiffOutput output) {
+        // A zero delta count is a single byte as a varint
+        if (varInts) {
+            output.putByte(0);
+        } else {
+            output.putShort(0);
+        }
     }
 
     private void writeInsn(ByteVector vector, AbstractInsnNode insn, LabelMap labelMap) {
@@ -1133,7 +1250,8 @@ public class DiffWriter extends DiffVisitor {
                     }
                     case AbstractInsnNode.LINE: {
                         final LineNumberNode lineNumber = (LineNumberNode)insn;
-                        vector.putShort(lineNumber.line).putShort(labelMap.getId(lineNumber.start));
+                        vector.putShort(lineNumber.line);
+                        putInsnIndex(vector, labelMap.getId(lineNumber.start));
                         break;
                     }
                 }
@@ -1156,7 +1274,8 @@ public class DiffWriter extends DiffVisitor {
         } else if (frameObject instanceof String) {
             vector.putByte(Frame.ITEM_OBJECT).putShort(symbolTable.addConstantClass((String)frameObject).index);
         } else if (frameObject instanceof LabelNode) {
-            vector.putByte(Frame.ITEM_UNINITIALIZED).putShort(labelMap.getId((LabelNode)frameObject));
+            vector.putByte(Frame.ITEM_UNINITIALIZED);
+            putInsnIndex(vector, labelMap.getId((LabelNode)frameObject));
         } else {
             throw new IllegalArgumentException("Unknown frame object type: " + frameObject.getClass());
         }
@@ -0,0 +1,151 @@
+package io.github.prcraftmc.classdiff.format;
+
+import io.github.prcraftmc.classdiff.util.Util;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a patch archive written by {@link PatchArchiveWriter}. Classes are found by a binary search over the index, and
+ * their diffs are returned as slices of the archive, so only the diffs that are actually used are ever read.
+ * <p>
+ * Entries are referred to by their position in the index, from {@code 0} to {@link #size()} exclusive, which is
+ * returned by {@link #indexOf}. Instances are immutable and may be used from many threads at once.
+ */
+public class PatchArchive {
+    private final ByteBuffer contents;
+    private final int size;
+
+    /**
+     * Reads the archive from the remaining bytes of {@code contents}, which are read in place and must not be modified.
+     * The position of {@code contents} is not changed.
+     */
+    public PatchArchive(ByteBuffer contents) {
+        this.contents = contents.slice().order(ByteOrder.BIG_ENDIAN);
+        if (this.contents.remaining() < PatchArchiveWriter.HEADER_SIZE || this.contents.getInt(0) != DiffConstants.ARCHIVE_MAGIC) {
+            throw new IllegalArgumentException("Patch archive did not start with magic 0xEBABEFAD");
+        }
+        final int version = this.contents.getShort(4) & 0xffff;
+        if (version != DiffConstants.ARCHIVE_V1) {
+            throw new IllegalArgumentException(
+                "Unsupported patch archive version. Read " + version +
+                ". Only version " + DiffConstants.ARCHIVE_V1 + " is supported."
+            );
+        }
+        size = this.contents.getInt(6);
+    }
+
+    /**
+     * Maps the archive at {@code path} into memory. The mapping stays valid after the file is closed.
+     */
+    public static PatchArchive open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new PatchArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param className The internal name of a class
+     * @return The index of the entry for {@code className}, or {@code -1} if there is none
+     */
+    public int indexOf(String className) {
+        final byte[] name = className.getBytes(StandardCharsets.UTF_8);
+        final long hash = Util.hash64(name);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midHash = getNameHash(mid);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                // Hash collisions are next to each other
+                for (int i = mid; i >= 0 && getNameHash(i) == hash; i--) {
+                    if (nameEquals(i, name)) {
+                        return i;
+                    }
+                }
+                for (int i = mid + 1; i < size && getNameHash(i) == hash; i++) {
+                    if (nameEquals(i, name)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    public String getName(int index) {
+        final int offset = contents.getInt(entryOffset(index) + 8);
+        final byte[] name = new byte[contents.getShort(offset) & 0xffff];
+        final ByteBuffer buffer = contents.duplicate();
+        buffer.position(offset + 2);
+        buffer.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The {@link Util#hash64} of the class that the diff at {@code index} applies to
+     */
+    public long getSourceChecksum(int index) {
+        return contents.getLong(entryOffset(index) + 20);
+    }
+
+    /**
+     * @return The diff at {@code index}, as a read-only slice of the archive
+     */
+    public ByteBuffer getPatch(int index) {
+        final int entryOffset = entryOffset(index);
+        final int offset = contents.getInt(entryOffset + 12);
+        final int length = contents.getInt(entryOffset + 16);
+        final ByteBuffer result = contents.asReadOnlyBuffer();
+        result.position(offset).limit(offset + length);
+        return result.slice();
+    }
+
+    /**
+     * @return The diff for {@code className}, or {@code null} if the archive has none
+     */
+    @Nullable
+    public DiffReader getDiff(String className) {
+        final int index = indexOf(className);
+        return index != -1 ? new DiffReader(getPatch(index)) : null;
+    }
+
+    private long getNameHash(int index) {
+        return contents.getLong(entryOffset(index));
+    }
+
+    private boolean nameEquals(int index, byte[] name) {
+        final int offset = contents.getInt(entryOffset(index) + 8);
+        if ((contents.getShort(offset) & 0xffff) != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (contents.get(offset + 2 + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int entryOffset(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Patch archive index " + index + " out of bounds for size " + size);
+        }
+        return PatchArchiveWriter.HEADER_SIZE + index * PatchArchiveWriter.ENTRY_SIZE;
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.prcraftmc.classdiff.format;
+
+import io.github.prcraftmc.classdiff.util.Util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a patch archive, which holds the diffs of many classes in one file and can be read by {@link PatchArchive}.
+ * <p>
+ * The archive starts with {@link DiffConstants#ARCHIVE_MAGIC}, a short version and an int entry count. This is
+ * followed by one 28 byte index entry per class, sorted by the hash of the class name:
+ * <ul>
+ *     <li>the {@link Util#hash64} of the class name's UTF-8 bytes, as a long</li>
+ *     <li>the offset of the class name, stored as a short length followed by its UTF-8 bytes</li>
+ *     <li>the offset and length of the diff</li>
+ *     <li>the {@link Util#hash64} of the class that the diff applies to, as a long</li>
+ * </ul>
+ * After the index come the class names, and then the diffs themselves. All offsets are ints from the start of the
+ * archive.
+ */
+public class PatchArchiveWriter {
+    static final int HEADER_SIZE = 10;
+    static final int ENTRY_SIZE = 28;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * @param className The internal name of the class
+     * @param sourceChecksum The {@link Util#hash64} of the class that {@code patch} applies to
+     * @param patch The diff, as written by {@link DiffWriter}
+     */
+    public void add(String className, long sourceChecksum, byte[] patch) {
+        final byte[] name = className.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xffff) {
+            throw new IllegalArgumentException("Class name too long: " + className);
+        }
+        if (entries.putIfAbsent(className, new Entry(name, sourceChecksum, patch)) != null) {
+            throw new IllegalArgumentException("Duplicate class in patch archive: " + className);
+        }
+    }
+
+    public void add(String className, long sourceChecksum, DiffWriter patch) {
+        add(className, sourceChecksum, patch.toByteArray());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            writeTo(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes the archive to {@code output}, which is not closed.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        final List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort(null);
+
+        long namesSize = 0;
+        long patchesSize = 0;
+        for (final Entry entry : sorted) {
+            namesSize += 2 + entry.name.length;
+            patchesSize += entry.patch.length;
+        }
+        final long namesOffset = HEADER_SIZE + (long)ENTRY_SIZE * sorted.size();
+        if (namesOffset + namesSize + patchesSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Patch archive too large");
+        }
+
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+        data.writeInt(DiffConstants.ARCHIVE_MAGIC);
+        data.writeShort(DiffConstants.ARCHIVE_V1);
+        data.writeInt(sorted.size());
+        int nameOffset = (int)namesOffset;
+        int patchOffset = (int)(namesOffset + namesSize);
+        for (final Entry entry : sorted) {
+            data.writeLong(entry.nameHash);
+            data.writeInt(nameOffset);
+            data.writeInt(patchOffset);
+            data.writeInt(entry.patch.length);
+            data.writeLong(entry.sourceChecksum);
+            nameOffset += 2 + entry.name.length;
+            patchOffset += entry.patch.length;
+        }
+        for (final Entry entry : sorted) {
+            data.writeShort(entry.name.length);
+            data.write(entry.name);
+        }
+        for (final Entry entry : sorted) {
+            data.write(entry.patch);
+        }
+        data.flush();
+    }
+
+    private static int compareNames(byte[] a, byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return (a[i] & 0xff) - (b[i] & 0xff);
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final byte[] name;
+        final long nameHash;
+        final long sourceChecksum;
+        final byte[] patch;
+
+        Entry(byte[] name, long sourceChecksum, byte[] patch) {
+            this.name = name;
+            this.nameHash = Util.hash64(name);
+            this.sourceChecksum = sourceChecksum;
+            this.patch = patch;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            final int result = Long.compare(nameHash, o.nameHash);
+            return result != 0 ? result : compareNames(name, o.name);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package io.github.prcraftmc.classdiff.format;
 import io.github.prcraftmc.classdiff.util.ReflectUtils;
 import org.objectweb.asm.*;
 
+import java.io.IOException;
+
 public class SymbolTable {
     private Entry[] entries = new Entry[256];
     private int entryCount = 0;
@@ -93,6 +95,10 @@ public class SymbolTable {
         output.putShort(constantPoolCount).putByteArray(ReflectUtils.getByteVectorData(constantPool), 0, constantPool.size());
     }
 
+    void putConstantPool(DiffOutput output) throws IOException {
+        output.putShort(constantPoolCount).put(constantPool);
+    }
+
     public int computeBootstrapMethodsSize() {
         if (bootstrapMethods != null) {
             addConstantUtf8("BootstrapMethods");
@@ -102,13 +108,13 @@ public class SymbolTable {
         }
     }
 
-    void putBootstrapMethods(final ByteVector output) {
+    void putBootstrapMethods(final DiffOutput output) throws IOException {
         if (bootstrapMethods != null) {
             output
                 .putShort(addConstantUtf8("BootstrapMethods"))
                 .putInt(bootstrapMethods.size() + 2)
                 .putShort(bootstrapMethodCount)
-                .putByteArray(ReflectUtils.getByteVectorData(bootstrapMethods), 0, bootstrapMethods.size());
+                .put(bootstrapMethods);
         }
     }
 
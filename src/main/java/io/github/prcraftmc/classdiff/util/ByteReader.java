@@ -2,19 +2,31 @@ package io.github.prcraftmc.classdiff.util;
 
 import org.objectweb.asm.ByteVector;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
- * The inverse of {@link ByteVector}
+ * The inverse of {@link ByteVector}. The data may be a heap array or any {@link ByteBuffer}, such as a mapped file, in
+ * which case it is read in place. Offsets are relative to the position of the buffer at construction.
  */
 public class ByteReader {
-    private final byte[] data;
+    private final ByteBuffer data;
     private int ptr;
 
     public ByteReader(byte[] data) {
-        this.data = data;
+        this(data, 0);
     }
 
     public ByteReader(byte[] data, int ptr) {
-        this.data = data;
+        this(ByteBuffer.wrap(data), ptr);
+    }
+
+    public ByteReader(ByteBuffer data) {
+        this(data, 0);
+    }
+
+    public ByteReader(ByteBuffer data, int ptr) {
+        this.data = data.slice().order(ByteOrder.BIG_ENDIAN);
         this.ptr = ptr;
     }
 
@@ -31,24 +43,37 @@ public class ByteReader {
     }
 
     public int readByte() {
-        return data[ptr++] & 0xff;
+        return data.get(ptr++) & 0xff;
     }
 
     public int readShort() {
-        return ((data[ptr++] & 0xff) << 8) | (data[ptr++] & 0xff);
+        final int result = data.getShort(ptr) & 0xffff;
+        ptr += 2;
+        return result;
     }
 
     public int readInt() {
-        final int offset = ptr;
+        final int result = data.getInt(ptr);
         ptr += 4;
-        return ((data[offset] & 0xff) << 24)
-            | ((data[offset + 1] & 0xff) << 16)
-            | ((data[offset + 2] & 0xff) << 8)
-            | (data[offset + 3] & 0xff);
+        return result;
     }
 
     public long readLong() {
-        return ((readInt() & 0xffffffffL) << 32) | (readInt() & 0xffffffffL);
+        final long result = data.getLong(ptr);
+        ptr += 8;
+        return result;
+    }
+
+    public int readVarInt() {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = data.get(ptr++);
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint ending at " + ptr);
     }
 
     public String readUtf8() {
@@ -58,18 +83,18 @@ public class ByteReader {
         int offset = ptr;
         final int endOffset = offset + length;
         int strLength = 0;
-        final byte[] input = data;
+        final ByteBuffer input = data;
         while (offset < endOffset) {
-            final int currentByte = input[offset++];
+            final int currentByte = input.get(offset++);
             if ((currentByte & 0x80) == 0) {
                 result[strLength++] = (char)(currentByte & 0x7f);
             } else if ((currentByte & 0xE0) == 0xC0) {
-                result[strLength++] = (char)(((currentByte & 0x1f) << 6) + (input[offset++] & 0x3f));
+                result[strLength++] = (char)(((currentByte & 0x1f) << 6) + (input.get(offset++) & 0x3f));
             } else {
                 result[strLength++] =
                     (char)(((currentByte & 0xf) << 12)
-                        + ((input[offset++] & 0x3f) << 6)
-                        + (input[offset++] & 0x3f)
+                        + ((input.get(offset++) & 0x3f) << 6)
+                        + (input.get(offset++) & 0x3f)
                     );
             }
         }
@@ -79,7 +104,9 @@ public class ByteReader {
     }
 
     public byte[] readByteArray(byte[] byteArray, int offset, int length) {
-        System.arraycopy(data, ptr, byteArray, offset, length);
+        final ByteBuffer source = data.duplicate();
+        source.position(ptr);
+        source.get(byteArray, offset, length);
         ptr += length;
         return byteArray;
     }
@@ -0,0 +1,335 @@
+package io.github.prcraftmc.classdiff.util;
+
+import io.github.prcraftmc.classdiff.format.Symbol;
+import org.objectweb.asm.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the events of a method into bytes that don't depend on the constant pool or on label identities, so that the
+ * same method read from two different classes gives equal bytes. This lets a method be compared straight from a
+ * {@link ClassReader}, without building a {@link org.objectweb.asm.tree.MethodNode}.
+ * <p>
+ * Annotations and non-standard attributes aren't encoded. A method with any of those is {@linkplain #isOpaque opaque},
+ * and must be compared some other way.
+ */
+public class CanonicalMethodWriter extends MethodVisitor {
+    // Tags for non-insn events, above any opcode
+    private static final int PARAMETER = 0xf1;
+    private static final int CODE = 0xf2;
+    private static final int FRAME = 0xf3;
+    private static final int LABEL = 0xf4;
+    private static final int TRY_CATCH_BLOCK = 0xf5;
+    private static final int LOCAL_VARIABLE = 0xf6;
+    private static final int LINE_NUMBER = 0xf7;
+    private static final int MAXS = 0xf8;
+
+    private final ByteVector output = new ByteVector();
+    private final Map<Label, Integer> labelIds = new HashMap<>();
+    private boolean opaque;
+
+    public CanonicalMethodWriter(int access, String name, String descriptor, String signature, String[] exceptions) {
+        super(Opcodes.ASM9);
+        output.putInt(access);
+        putString(name);
+        putString(descriptor);
+        putString(signature);
+        if (exceptions == null) {
+            output.putShort(0);
+        } else {
+            output.putShort(exceptions.length + 1);
+            for (final String exception : exceptions) {
+                putString(exception);
+            }
+        }
+    }
+
+    /**
+     * @return Whether this method has contents that aren't encoded, in which case {@link #toByteArray} must not be used
+     *         for comparisons.
+     */
+    public boolean isOpaque() {
+        return opaque;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(ReflectUtils.getByteVectorData(output), output.size());
+    }
+
+    @Override
+    public void visitParameter(String name, int access) {
+        output.putByte(PARAMETER);
+        putString(name);
+        output.putInt(access);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotationDefault() {
+        opaque = true;
+        return null;
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        opaque = true;
+        return null;
+    }
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        opaque = true;
+        return null;
+    }
+
+    @Override
+    public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+        opaque = true;
+    }
+
+    @Override
+    public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+        opaque = true;
+        return null;
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+        opaque = true;
+    }
+
+    @Override
+    public void visitCode() {
+        output.putByte(CODE);
+    }
+
+    @Override
+    public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+        output.putByte(FRAME).putByte(type).putShort(numLocal).putShort(numStack);
+        for (int i = 0; i < numLocal; i++) {
+            putFrameObject(local[i]);
+        }
+        for (int i = 0; i < numStack; i++) {
+            putFrameObject(stack[i]);
+        }
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        output.putByte(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        output.putByte(opcode).putInt(operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int varIndex) {
+        output.putByte(opcode).putShort(varIndex);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        output.putByte(opcode);
+        putString(type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        output.putByte(opcode);
+        putString(owner);
+        putString(name);
+        putString(descriptor);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        output.putByte(opcode);
+        putString(owner);
+        putString(name);
+        putString(descriptor);
+        output.putByte(isInterface ? 1 : 0);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        output.putByte(Opcodes.INVOKEDYNAMIC);
+        putString(name);
+        putString(descriptor);
+        putHandle(bootstrapMethodHandle);
+        output.putShort(bootstrapMethodArguments.length);
+        for (final Object argument : bootstrapMethodArguments) {
+            putConstant(argument);
+        }
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        output.putByte(opcode);
+        putLabel(label);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+        output.putByte(LABEL);
+        putLabel(label);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+        output.putByte(Opcodes.LDC);
+        putConstant(value);
+    }
+
+    @Override
+    public void visitIincInsn(int varIndex, int increment) {
+        output.putByte(Opcodes.IINC).putShort(varIndex).putShort(increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        output.putByte(Opcodes.TABLESWITCH).putInt(min).putInt(max);
+        putLabel(dflt);
+        for (final Label label : labels) {
+            putLabel(label);
+        }
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        output.putByte(Opcodes.LOOKUPSWITCH).putInt(keys.length);
+        putLabel(dflt);
+        for (int i = 0; i < keys.length; i++) {
+            output.putInt(keys[i]);
+            putLabel(labels[i]);
+        }
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+        output.putByte(Opcodes.MULTIANEWARRAY);
+        putString(descriptor);
+        output.putByte(numDimensions);
+    }
+
+    @Override
+    public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        opaque = true;
+        return null;
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        output.putByte(TRY_CATCH_BLOCK);
+        putLabel(start);
+        putLabel(end);
+        putLabel(handler);
+        putString(type);
+    }
+
+    @Override
+    public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        opaque = true;
+        return null;
+    }
+
+    @Override
+    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+        output.putByte(LOCAL_VARIABLE);
+        putString(name);
+        putString(descriptor);
+        putString(signature);
+        putLabel(start);
+        putLabel(end);
+        output.putShort(index);
+    }
+
+    @Override
+    public AnnotationVisitor visitLocalVariableAnnotation(
+        int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible
+    ) {
+        opaque = true;
+        return null;
+    }
+
+    @Override
+    public void visitLineNumber(int line, Label start) {
+        output.putByte(LINE_NUMBER).putShort(line);
+        putLabel(start);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        output.putByte(MAXS).putShort(maxStack).putShort(maxLocals);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            output.putByte(0);
+        } else {
+            output.putByte(1).putUTF8(value);
+        }
+    }
+
+    private void putLabel(Label label) {
+        // Labels are numbered in order of first appearance, which is the same for equal methods
+        Integer id = labelIds.get(label);
+        if (id == null) {
+            labelIds.put(label, id = labelIds.size());
+        }
+        output.putInt(id);
+    }
+
+    private void putFrameObject(Object value) {
+        if (value instanceof Integer) {
+            output.putByte(0).putByte((Integer)value);
+        } else if (value instanceof String) {
+            output.putByte(1).putUTF8((String)value);
+        } else {
+            output.putByte(2);
+            putLabel((Label)value);
+        }
+    }
+
+    private void putHandle(Handle handle) {
+        output.putByte(handle.getTag());
+        putString(handle.getOwner());
+        putString(handle.getName());
+        putString(handle.getDesc());
+        output.putByte(handle.isInterface() ? 1 : 0);
+    }
+
+    private void putConstant(Object value) {
+        if (value instanceof Integer) {
+            output.putByte(Symbol.CONSTANT_INTEGER_TAG).putInt((Integer)value);
+        } else if (value instanceof Float) {
+            output.putByte(Symbol.CONSTANT_FLOAT_TAG).putInt(Float.floatToRawIntBits((Float)value));
+        } else if (value instanceof Long) {
+            output.putByte(Symbol.CONSTANT_LONG_TAG).putLong((Long)value);
+        } else if (value instanceof Double) {
+            output.putByte(Symbol.CONSTANT_DOUBLE_TAG).putLong(Double.doubleToRawLongBits((Double)value));
+        } else if (value instanceof String) {
+            output.putByte(Symbol.CONSTANT_STRING_TAG).putUTF8((String)value);
+        } else if (value instanceof Type) {
+            output.putByte(Symbol.CONSTANT_CLASS_TAG).putByte(((Type)value).getSort());
+            putString(((Type)value).getDescriptor());
+        } else if (value instanceof Handle) {
+            output.putByte(Symbol.CONSTANT_METHOD_HANDLE_TAG);
+            putHandle((Handle)value);
+        } else if (value instanceof ConstantDynamic) {
+            final ConstantDynamic constant = (ConstantDynamic)value;
+            output.putByte(Symbol.CONSTANT_DYNAMIC_TAG);
+            putString(constant.getName());
+            putString(constant.getDescriptor());
+            putHandle(constant.getBootstrapMethod());
+            output.putShort(constant.getBootstrapMethodArgumentCount());
+            for (int i = 0; i < constant.getBootstrapMethodArgumentCount(); i++) {
+                putConstant(constant.getBootstrapMethodArgument(i));
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown constant type: " + value.getClass());
+        }
+    }
+}
@@ -584,6 +584,94 @@ public class Equalizers {
         }
     }
 
+    /**
+     * A hash of an instruction that is consistent with {@link #insn}. Labels are hashed by their id in {@code labels}.
+     */
+    public static int insnHash(AbstractInsnNode insn, LabelMap labels) {
+        int result = 31 * insn.getType() + insn.getOpcode();
+        switch (insn.getType()) {
+            case AbstractInsnNode.INT_INSN:
+                return 31 * result + ((IntInsnNode)insn).operand;
+            case AbstractInsnNode.VAR_INSN:
+                return 31 * result + ((VarInsnNode)insn).var;
+            case AbstractInsnNode.TYPE_INSN:
+                return 31 * result + ((TypeInsnNode)insn).desc.hashCode();
+            case AbstractInsnNode.FIELD_INSN: {
+                final FieldInsnNode node = (FieldInsnNode)insn;
+                result = 31 * result + node.owner.hashCode();
+                result = 31 * result + node.name.hashCode();
+                return 31 * result + node.desc.hashCode();
+            }
+            case AbstractInsnNode.METHOD_INSN: {
+                final MethodInsnNode node = (MethodInsnNode)insn;
+                result = 31 * result + node.owner.hashCode();
+                result = 31 * result + node.name.hashCode();
+                return 31 * result + node.desc.hashCode();
+            }
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+                final InvokeDynamicInsnNode node = (InvokeDynamicInsnNode)insn;
+                result = 31 * result + node.name.hashCode();
+                result = 31 * result + node.desc.hashCode();
+                result = 31 * result + node.bsm.hashCode();
+                return 31 * result + Arrays.hashCode(node.bsmArgs);
+            }
+            case AbstractInsnNode.LDC_INSN:
+                return 31 * result + ((LdcInsnNode)insn).cst.hashCode();
+            case AbstractInsnNode.IINC_INSN: {
+                final IincInsnNode node = (IincInsnNode)insn;
+                result = 31 * result + node.var;
+                return 31 * result + node.incr;
+            }
+            case AbstractInsnNode.JUMP_INSN:
+                return 31 * result + labels.getId(((JumpInsnNode)insn).label);
+            case AbstractInsnNode.LABEL:
+                return 31 * result + labels.getId((LabelNode)insn);
+            case AbstractInsnNode.TABLESWITCH_INSN: {
+                final TableSwitchInsnNode node = (TableSwitchInsnNode)insn;
+                result = 31 * result + node.min;
+                result = 31 * result + node.max;
+                result = 31 * result + labels.getId(node.dflt);
+                for (final LabelNode label : node.labels) {
+                    result = 31 * result + labels.getId(label);
+                }
+                return result;
+            }
+            case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+                final LookupSwitchInsnNode node = (LookupSwitchInsnNode)insn;
+                result = 31 * result + node.keys.hashCode();
+                result = 31 * result + labels.getId(node.dflt);
+                for (final LabelNode label : node.labels) {
+                    result = 31 * result + labels.getId(label);
+                }
+                return result;
+            }
+            case AbstractInsnNode.FRAME: {
+                final FrameNode node = (FrameNode)insn;
+                result = 31 * result + node.type;
+                result = 31 * result + frameObjectTypesHash(node.local, labels);
+                return 31 * result + frameObjectTypesHash(node.stack, labels);
+            }
+            case AbstractInsnNode.LINE: {
+                final LineNumberNode node = (LineNumberNode)insn;
+                result = 31 * result + node.line;
+                return 31 * result + labels.getId(node.start);
+            }
+            default:
+                return result;
+        }
+    }
+
+    private static int frameObjectTypesHash(List<Object> types, LabelMap labels) {
+        if (types == null) {
+            return 0;
+        }
+        int result = 1;
+        for (final Object type : types) {
+            result = 31 * result + (type instanceof LabelNode ? labels.getId((LabelNode)type) : Objects.hashCode(type));
+        }
+        return result;
+    }
+
     public static boolean frameObjectType(Object a, Object b, LabelMap aMap, LabelMap bMap) {
         if (a == b) {
             return true;
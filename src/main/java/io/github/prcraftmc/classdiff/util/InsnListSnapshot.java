@@ -0,0 +1,79 @@
+package io.github.prcraftmc.classdiff.util;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable copy of the instructions of an {@link InsnList} at the time of construction. Unlike
+ * {@link InsnListAdapter}, this doesn't depend on the cache of the {@link InsnList}, so it stays valid and fast while
+ * the original list is modified.
+ */
+public class InsnListSnapshot extends AbstractList<AbstractInsnNode> implements RandomAccess {
+    private final AbstractInsnNode[] insns;
+    private Map<AbstractInsnNode, Integer> indices;
+
+    public InsnListSnapshot(InsnList list) {
+        this(list.toArray());
+    }
+
+    public InsnListSnapshot(AbstractInsnNode[] insns) {
+        this.insns = insns;
+    }
+
+    @Override
+    public int size() {
+        return insns.length;
+    }
+
+    @Override
+    public AbstractInsnNode get(int index) {
+        return insns[index];
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (indices == null) {
+            final Map<AbstractInsnNode, Integer> indices = new IdentityHashMap<>(insns.length);
+            for (int i = 0; i < insns.length; i++) {
+                indices.put(insns[i], i);
+            }
+            this.indices = indices;
+        }
+        final Integer index = indices.get(o);
+        return index != null ? index : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o); // An insn can appear at most once
+    }
+
+    @Override
+    public Object[] toArray() {
+        return insns.clone();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        if (a.length < insns.length) {
+            return (T[])Arrays.copyOf(insns, insns.length, a.getClass());
+        }
+        System.arraycopy(insns, 0, a, 0, insns.length);
+        if (a.length > insns.length) {
+            a[insns.length] = null;
+        }
+        return a;
+    }
+}
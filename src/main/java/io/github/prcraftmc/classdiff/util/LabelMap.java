@@ -1,34 +1,64 @@
 package io.github.prcraftmc.classdiff.util;
 
 import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.LabelNode;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.stream.StreamSupport;
 
 public class LabelMap implements Iterable<LabelNode> {
     public static final LabelMap EMPTY = new LabelMap();
 
     private final LabelNode[] byId;
-    private final Map<LabelNode, Integer> toId;
+    // Open addressing identity table from label to id. Label.info can't be used for this, as LabelNode uses it.
+    private final LabelNode[] keys;
+    private final int[] ids;
 
     public LabelMap(LabelNode... labels) {
         byId = labels;
-        toId = new HashMap<>(labels.length);
-        for (final LabelNode label : labels) {
-            toId.put(label, toId.size());
+        int capacity = 2;
+        while (capacity < labels.length * 2) {
+            capacity <<= 1;
+        }
+        keys = new LabelNode[capacity];
+        ids = new int[capacity];
+        final int mask = capacity - 1;
+        for (int id = 0; id < labels.length; id++) {
+            int index = hash(labels[id]) & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = labels[id];
+            ids[index] = id;
         }
     }
 
     public LabelMap(Iterable<AbstractInsnNode> insns) {
-        this(StreamSupport.stream(insns.spliterator(), false)
-            .filter(i -> i instanceof LabelNode)
-            .map(i -> (LabelNode)i)
-            .toArray(LabelNode[]::new)
-        );
+        this(collectLabels(insns));
+    }
+
+    private static LabelNode[] collectLabels(Iterable<AbstractInsnNode> insns) {
+        LabelNode[] result = new LabelNode[insns instanceof InsnList
+            ? ((InsnList)insns).size()
+            : insns instanceof Collection ? ((Collection<?>)insns).size() : 16];
+        int size = 0;
+        for (final AbstractInsnNode insn : insns) {
+            if (insn instanceof LabelNode) {
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, Math.max(size * 2, 16));
+                }
+                result[size++] = (LabelNode)insn;
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private static int hash(LabelNode label) {
+        final int hash = System.identityHashCode(label);
+        return hash ^ (hash >>> 16);
     }
 
     public int size() {
@@ -43,7 +73,13 @@ public class LabelMap implements Iterable<LabelNode> {
         if (label instanceof SyntheticLabelNode) {
             return ((SyntheticLabelNode)label).getId();
         }
-        return toId.get(label);
+        final int mask = keys.length - 1;
+        for (int index = hash(label) & mask; keys[index] != null; index = (index + 1) & mask) {
+            if (keys[index] == label) {
+                return ids[index];
+            }
+        }
+        throw new IllegalArgumentException("Label " + label + " is not part of this LabelMap");
     }
 
     public LabelNode resolve(LabelNode label) {
@@ -0,0 +1,318 @@
+package io.github.prcraftmc.classdiff.util;
+
+import com.github.difflib.algorithm.Change;
+import com.github.difflib.algorithm.DiffAlgorithmFactory;
+import com.github.difflib.algorithm.DiffAlgorithmI;
+import com.github.difflib.algorithm.DiffAlgorithmListener;
+import com.github.difflib.patch.DeltaType;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * A divide-and-conquer Myers diff that only keeps {@code O(N + M)} state alive at a time, by recursing around the
+ * middle snake instead of storing every path. This is used for instruction lists, where {@code O(ND)} path storage
+ * can easily reach gigabytes on large generated methods.
+ * <p>
+ * If hashers are given, every element is hashed once up front. Comparisons then check the hashes first and only call
+ * the equalizer when they match, and the sequences are aligned on elements whose hash is unique on both sides (as in
+ * patience diff), so that Myers only runs on the windows between those anchors. Elements that are equal must hash the
+ * same, but the hash does not need to be perfect. A separate hasher may be given for each side, for when the hash
+ * depends on side-specific state, such as label ids.
+ */
+public class LinearSpaceDiff<T> implements DiffAlgorithmI<T> {
+    private final BiPredicate<T, T> equalizer;
+    private final ToIntFunction<? super T> sourceHasher;
+    private final ToIntFunction<? super T> targetHasher;
+
+    private Object[] a;
+    private Object[] b;
+    private int[] aHashes;
+    private int[] bHashes;
+    private int[] aToB;
+
+    public LinearSpaceDiff() {
+        this(Objects::equals);
+    }
+
+    public LinearSpaceDiff(BiPredicate<T, T> equalizer) {
+        this(equalizer, null);
+    }
+
+    public LinearSpaceDiff(BiPredicate<T, T> equalizer, ToIntFunction<? super T> hasher) {
+        this(equalizer, hasher, hasher);
+    }
+
+    public LinearSpaceDiff(
+        BiPredicate<T, T> equalizer,
+        ToIntFunction<? super T> sourceHasher,
+        ToIntFunction<? super T> targetHasher
+    ) {
+        if ((sourceHasher == null) != (targetHasher == null)) {
+            throw new IllegalArgumentException("Either both or neither hasher must be specified");
+        }
+        this.equalizer = equalizer;
+        this.sourceHasher = sourceHasher;
+        this.targetHasher = targetHasher;
+    }
+
+    public static DiffAlgorithmFactory factory() {
+        return new DiffAlgorithmFactory() {
+            @Override
+            public <T> DiffAlgorithmI<T> create() {
+                return create(Objects::equals);
+            }
+
+            @Override
+            public <T> DiffAlgorithmI<T> create(BiPredicate<T, T> equalizer) {
+                return new LinearSpaceDiff<>(equalizer);
+            }
+        };
+    }
+
+    @Override
+    public synchronized List<Change> computeDiff(List<T> source, List<T> target, DiffAlgorithmListener progress) {
+        if (progress != null) {
+            progress.diffStart();
+        }
+        a = source.toArray();
+        b = target.toArray();
+        aToB = new int[a.length];
+        Arrays.fill(aToB, -1);
+        try {
+            if (sourceHasher != null) {
+                aHashes = hash(a, sourceHasher);
+                bHashes = hash(b, targetHasher);
+                compareAnchored(0, a.length, 0, b.length);
+            } else {
+                compare(0, a.length, 0, b.length);
+            }
+            return buildChanges();
+        } finally {
+            a = b = null;
+            aHashes = bHashes = aToB = null;
+            if (progress != null) {
+                progress.diffEnd();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> int[] hash(Object[] elements, ToIntFunction<? super T> hasher) {
+        final int[] result = new int[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            result[i] = hasher.applyAsInt((T)elements[i]);
+        }
+        return result;
+    }
+
+    private void compareAnchored(int aStart, int aEnd, int bStart, int bEnd) {
+        while (aStart < aEnd && bStart < bEnd && equal(aStart, bStart)) {
+            aToB[aStart++] = bStart++;
+        }
+        while (aStart < aEnd && bStart < bEnd && equal(aEnd - 1, bEnd - 1)) {
+            aToB[--aEnd] = --bEnd;
+        }
+        if (aStart == aEnd || bStart == bEnd) {
+            return;
+        }
+
+        // {count in a, index in a, count in b, index in b}
+        final Map<Integer, int[]> occurrences = new HashMap<>();
+        for (int i = aStart; i < aEnd; i++) {
+            final int[] entry = occurrences.computeIfAbsent(aHashes[i], k -> new int[4]);
+            entry[0]++;
+            entry[1] = i;
+        }
+        for (int j = bStart; j < bEnd; j++) {
+            final int[] entry = occurrences.get(bHashes[j]);
+            if (entry != null) {
+                entry[2]++;
+                entry[3] = j;
+            }
+        }
+        final int[] candidates = new int[aEnd - aStart];
+        int candidateCount = 0;
+        for (int i = aStart; i < aEnd; i++) {
+            final int[] entry = occurrences.get(aHashes[i]);
+            if (entry[0] == 1 && entry[2] == 1 && equal(i, entry[3])) {
+                candidates[candidateCount++] = i;
+            }
+        }
+        if (candidateCount == 0) {
+            compare(aStart, aEnd, bStart, bEnd);
+            return;
+        }
+        final int[] matches = new int[candidateCount];
+        for (int c = 0; c < candidateCount; c++) {
+            matches[c] = occurrences.get(aHashes[candidates[c]])[3];
+        }
+
+        // Longest increasing subsequence of the matched b indices, using patience sorting
+        final int[] tails = new int[candidateCount];
+        final int[] previous = new int[candidateCount];
+        int piles = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            int low = 0, high = piles;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (matches[tails[mid]] < matches[c]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[c] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = c;
+            if (low == piles) {
+                piles++;
+            }
+        }
+        final int[] anchors = new int[piles];
+        for (int c = tails[piles - 1], k = piles - 1; c != -1; c = previous[c], k--) {
+            anchors[k] = c;
+        }
+
+        int aPrevious = aStart;
+        int bPrevious = bStart;
+        for (final int anchor : anchors) {
+            final int aIndex = candidates[anchor];
+            final int bIndex = matches[anchor];
+            compare(aPrevious, aIndex, bPrevious, bIndex);
+            aToB[aIndex] = bIndex;
+            aPrevious = aIndex + 1;
+            bPrevious = bIndex + 1;
+        }
+        compare(aPrevious, aEnd, bPrevious, bEnd);
+    }
+
+    private void compare(int aStart, int aEnd, int bStart, int bEnd) {
+        while (aStart < aEnd && bStart < bEnd && equal(aStart, bStart)) {
+            aToB[aStart++] = bStart++;
+        }
+        while (aStart < aEnd && bStart < bEnd && equal(aEnd - 1, bEnd - 1)) {
+            aToB[--aEnd] = --bEnd;
+        }
+        if (aStart == aEnd || bStart == bEnd) {
+            return;
+        }
+
+        final int aLength = aEnd - aStart;
+        final int bLength = bEnd - bStart;
+        final int maxD = (aLength + bLength + 1) / 2;
+        final int offset = maxD;
+        final int length = 2 * maxD + 2;
+        final int[] forward = new int[length];
+        final int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        final int delta = aLength - bLength;
+        final boolean front = (delta & 1) != 0;
+        int k1Start = 0, k1End = 0, k2Start = 0, k2End = 0;
+        for (int d = 0; d < maxD; d++) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                final int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < aLength && y1 < bLength && equal(aStart + x1, bStart + y1)) {
+                    x1++;
+                    y1++;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > aLength) {
+                    k1End += 2;
+                } else if (y1 > bLength) {
+                    k1Start += 2;
+                } else if (front) {
+                    final int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1) {
+                        if (x1 >= aLength - backward[k2Offset]) {
+                            compare(aStart, aStart + x1, bStart, bStart + y1);
+                            compare(aStart + x1, aEnd, bStart + y1, bEnd);
+                            return;
+                        }
+                    }
+                }
+            }
+
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                final int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1])) {
+                    x2 = backward[k2Offset + 1];
+                } else {
+                    x2 = backward[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < aLength && y2 < bLength && equal(aEnd - x2 - 1, bEnd - y2 - 1)) {
+                    x2++;
+                    y2++;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > aLength) {
+                    k2End += 2;
+                } else if (y2 > bLength) {
+                    k2Start += 2;
+                } else if (!front) {
+                    final int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        final int x1 = forward[k1Offset];
+                        final int y1 = offset + x1 - k1Offset;
+                        if (x1 >= aLength - x2) {
+                            compare(aStart, aStart + x1, bStart, bStart + y1);
+                            compare(aStart + x1, aEnd, bStart + y1, bEnd);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+        // No common elements. Everything in this range is a change.
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean equal(int aIndex, int bIndex) {
+        if (aHashes != null && aHashes[aIndex] != bHashes[bIndex]) {
+            return false;
+        }
+        return equalizer.test((T)a[aIndex], (T)b[bIndex]);
+    }
+
+    private List<Change> buildChanges() {
+        final List<Change> result = new ArrayList<>();
+        int aIndex = 0;
+        int bIndex = 0;
+        while (aIndex < a.length || bIndex < b.length) {
+            if (aIndex < a.length && aToB[aIndex] == bIndex) {
+                aIndex++;
+                bIndex++;
+                continue;
+            }
+            int aNext = aIndex;
+            while (aNext < a.length && aToB[aNext] == -1) {
+                aNext++;
+            }
+            final int bNext = aNext < a.length ? aToB[aNext] : b.length;
+            final DeltaType type;
+            if (aNext == aIndex) {
+                type = DeltaType.INSERT;
+            } else if (bNext == bIndex) {
+                type = DeltaType.DELETE;
+            } else {
+                type = DeltaType.CHANGE;
+            }
+            result.add(new Change(type, aIndex, aNext, bIndex, bNext));
+            aIndex = aNext;
+            bIndex = bNext;
+        }
+        return result;
+    }
+}
@@ -1,6 +1,7 @@
 package io.github.prcraftmc.classdiff.util;
 
 import com.github.difflib.patch.*;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -15,36 +16,38 @@ public class PatchReader<T> {
         this.reader = reader;
     }
 
-    private void read(int deltaCount, ByteReader input, Consumer<AbstractDelta<T>> output, List<T> originals) {
+    private void read(
+        int deltaCount, ByteReader input, boolean varInts, Consumer<AbstractDelta<T>> output, @Nullable List<T> originals
+    ) {
         for (int i = 0; i < deltaCount; i++) {
             final DeltaType type = DeltaType.values()[input.readByte()];
             switch (type) {
                 case CHANGE: {
-                    final int position = input.readShort();
-                    final int sourceLength = input.readShort();
-                    final int targetLength = input.readShort();
+                    final int position = readIndex(input, varInts);
+                    final int sourceLength = readIndex(input, varInts);
+                    final int targetLength = readIndex(input, varInts);
                     final List<T> targetLines = new ArrayList<>(targetLength);
                     for (int j = 0; j < targetLength; j++) {
                         targetLines.add(reader.apply(input));
                     }
                     output.accept(new ChangeDelta<>(
-                        new Chunk<>(position, originals.subList(position, position + sourceLength)),
+                        new Chunk<>(position, sourceLines(originals, position, sourceLength)),
                         new Chunk<>(0, targetLines)
                     ));
                     break;
                 }
                 case DELETE: {
-                    final int position = input.readShort();
-                    final int length = input.readShort();
+                    final int position = readIndex(input, varInts);
+                    final int length = readIndex(input, varInts);
                     output.accept(new DeleteDelta<>(
-                        new Chunk<>(position, originals.subList(position, position + length)),
+                        new Chunk<>(position, sourceLines(originals, position, length)),
                         new Chunk<>(0, Collections.emptyList())
                     ));
                     break;
                 }
                 case INSERT: {
-                    final int position = input.readShort();
-                    final int targetLength = input.readShort();
+                    final int position = readIndex(input, varInts);
+                    final int targetLength = readIndex(input, varInts);
                     final List<T> targetLines = new ArrayList<>(targetLength);
                     for (int j = 0; j < targetLength; j++) {
                         targetLines.add(reader.apply(input));
@@ -64,17 +67,33 @@ public class PatchReader<T> {
         }
     }
 
-    public List<AbstractDelta<T>> readDeltaList(ByteReader input, List<T> originals) {
-        final int deltaCount = input.readShort();
+    private static <T> List<T> sourceLines(@Nullable List<T> originals, int position, int length) {
+        return originals != null ? originals.subList(position, position + length) : Collections.nCopies(length, null);
+    }
+
+    /**
+     * @param originals The list the patch applies to, or {@code null} if it isn't known, in which case the source lines
+     *     of each delta are {@code null}
+     * @param varInts Whether the delta count, positions and sizes are read as varints, rather than shorts.
+     */
+    public List<AbstractDelta<T>> readDeltaList(ByteReader input, @Nullable List<T> originals, boolean varInts) {
+        final int deltaCount = readIndex(input, varInts);
         final List<AbstractDelta<T>> result = new ArrayList<>(deltaCount);
-        read(deltaCount, input, result::add, originals);
+        read(deltaCount, input, varInts, result::add, originals);
         return result;
     }
 
-    public Patch<T> readPatch(ByteReader input, List<T> originals) {
-        final int deltaCount = input.readShort();
+    /**
+     * @see #readDeltaList
+     */
+    public Patch<T> readPatch(ByteReader input, @Nullable List<T> originals, boolean varInts) {
+        final int deltaCount = readIndex(input, varInts);
         final Patch<T> result = new Patch<>(deltaCount);
-        read(deltaCount, input, result::addDelta, originals);
+        read(deltaCount, input, varInts, result::addDelta, originals);
         return result;
     }
+
+    public static int readIndex(ByteReader input, boolean varInts) {
+        return varInts ? input.readVarInt() : input.readShort();
+    }
 }
@@ -14,26 +14,29 @@ public class PatchWriter<T> {
         this.writer = writer;
     }
 
-    public void write(ByteVector vector, List<AbstractDelta<T>> patch) {
-        vector.putShort(patch.size());
+    /**
+     * @param varInts Whether the delta count, positions and sizes are written as varints, rather than shorts.
+     */
+    public void write(ByteVector vector, List<AbstractDelta<T>> patch, boolean varInts) {
+        putIndex(vector, patch.size(), varInts);
         for (final AbstractDelta<T> delta : patch) {
             vector.putByte(delta.getType().ordinal());
             switch (delta.getType()) {
                 case CHANGE:
-                    vector.putShort(delta.getSource().getPosition());
-                    vector.putShort(delta.getSource().size());
-                    vector.putShort(delta.getTarget().size());
+                    putIndex(vector, delta.getSource().getPosition(), varInts);
+                    putIndex(vector, delta.getSource().size(), varInts);
+                    putIndex(vector, delta.getTarget().size(), varInts);
                     for (final T line : delta.getTarget().getLines()) {
                         writer.accept(vector, line);
                     }
                     break;
                 case DELETE:
-                    vector.putShort(delta.getSource().getPosition());
-                    vector.putShort(delta.getSource().size());
+                    putIndex(vector, delta.getSource().getPosition(), varInts);
+                    putIndex(vector, delta.getSource().size(), varInts);
                     break;
                 case INSERT:
-                    vector.putShort(delta.getSource().getPosition());
-                    vector.putShort(delta.getTarget().size());
+                    putIndex(vector, delta.getSource().getPosition(), varInts);
+                    putIndex(vector, delta.getTarget().size(), varInts);
                     for (final T line : delta.getTarget().getLines()) {
                         writer.accept(vector, line);
                     }
@@ -45,7 +48,17 @@ public class PatchWriter<T> {
         }
     }
 
-    public void write(ByteVector vector, Patch<T> patch) {
-        write(vector, patch.getDeltas());
+    public void write(ByteVector vector, Patch<T> patch, boolean varInts) {
+        write(vector, patch.getDeltas(), varInts);
+    }
+
+    private static void putIndex(ByteVector vector, int value, boolean varInts) {
+        if (varInts) {
+            Util.putVarInt(vector, value);
+        } else if (value > 0xffff) {
+            throw new IllegalArgumentException("Patch index " + value + " doesn't fit in a short. Use varInts.");
+        } else {
+            vector.putShort(value);
+        }
     }
 }
@@ -1,64 +1,80 @@
 package io.github.prcraftmc.classdiff.util;
 
-import com.github.difflib.patch.AbstractDelta;
-import com.github.difflib.patch.PatchFailedException;
 import org.jetbrains.annotations.ApiStatus;
 import org.objectweb.asm.*;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.List;
 
+/**
+ * Access to ASM internals. The members are looked up once into static final {@link MethodHandle}s, which the JIT can
+ * inline into the callers, as these are called for every section, annotation and custom attribute.
+ */
 @ApiStatus.Internal
 public class ReflectUtils {
-    private static final Constructor<Attribute> NEW_ATTRIBUTE;
-    private static final Field ATTRIBUTE_CONTENT;
+    private static final MethodHandle NEW_ATTRIBUTE;
+    private static final boolean ATTRIBUTE_CONTENT_IS_BYTES;
+    private static final MethodHandle GET_ATTRIBUTE_CONTENT;
+    private static final MethodHandle SET_ATTRIBUTE_CONTENT;
 
-    private static final Field BYTE_VECTOR_DATA;
-    private static final Field BYTE_VECTOR_LENGTH;
+    private static final MethodHandle GET_BYTE_VECTOR_DATA;
+    private static final MethodHandle SET_BYTE_VECTOR_DATA;
+    private static final MethodHandle SET_BYTE_VECTOR_LENGTH;
 
-    private static final Field CONSTANT_DYNAMIC_BOOTSTRAP_METHOD_ARGUMENTS;
+    private static final MethodHandle GET_CONSTANT_DYNAMIC_BOOTSTRAP_METHOD_ARGUMENTS;
 
-    private static final Constructor<TypePath> NEW_TYPE_PATH;
-    private static final Method TYPE_PATH_PUT;
+    private static final MethodHandle NEW_TYPE_PATH;
+    private static final MethodHandle TYPE_PATH_PUT;
 
-    private static final Method TYPE_REFERENCE_PUT_TARGET;
-
-    private static final Method ABSTRACT_DELTA_APPLY_TO;
+    private static final MethodHandle TYPE_REFERENCE_PUT_TARGET;
 
     static {
         try {
-            NEW_ATTRIBUTE = Attribute.class.getDeclaredConstructor(String.class);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            final Constructor<Attribute> newAttribute = Attribute.class.getDeclaredConstructor(String.class);
             Field attributeContent;
             try {
                 attributeContent = Attribute.class.getDeclaredField("content");
             } catch (NoSuchFieldException e) {
                 attributeContent = Attribute.class.getDeclaredField("cachedContent");
             }
-            ATTRIBUTE_CONTENT = attributeContent;
-            NEW_ATTRIBUTE.setAccessible(true);
-            ATTRIBUTE_CONTENT.setAccessible(true);
-
-            BYTE_VECTOR_DATA = ByteVector.class.getDeclaredField("data");
-            BYTE_VECTOR_LENGTH = ByteVector.class.getDeclaredField("length");
-            BYTE_VECTOR_DATA.setAccessible(true);
-            BYTE_VECTOR_LENGTH.setAccessible(true);
-
-            CONSTANT_DYNAMIC_BOOTSTRAP_METHOD_ARGUMENTS = ConstantDynamic.class.getDeclaredField("bootstrapMethodArguments");
-            CONSTANT_DYNAMIC_BOOTSTRAP_METHOD_ARGUMENTS.setAccessible(true);
-
-            NEW_TYPE_PATH = TypePath.class.getDeclaredConstructor(byte[].class, int.class);
-            TYPE_PATH_PUT = TypePath.class.getDeclaredMethod("put", TypePath.class, ByteVector.class);
-            NEW_TYPE_PATH.setAccessible(true);
-            TYPE_PATH_PUT.setAccessible(true);
-
-            TYPE_REFERENCE_PUT_TARGET = TypeReference.class.getDeclaredMethod("putTarget", int.class, ByteVector.class);
-            TYPE_REFERENCE_PUT_TARGET.setAccessible(true);
-
-            ABSTRACT_DELTA_APPLY_TO = AbstractDelta.class.getDeclaredMethod("applyTo", List.class);
-            ABSTRACT_DELTA_APPLY_TO.setAccessible(true);
+            newAttribute.setAccessible(true);
+            attributeContent.setAccessible(true);
+            NEW_ATTRIBUTE = lookup.unreflectConstructor(newAttribute);
+            ATTRIBUTE_CONTENT_IS_BYTES = attributeContent.getType() == byte[].class;
+            GET_ATTRIBUTE_CONTENT = lookup.unreflectGetter(attributeContent)
+                .asType(MethodType.methodType(Object.class, Attribute.class));
+            SET_ATTRIBUTE_CONTENT = lookup.unreflectSetter(attributeContent)
+                .asType(MethodType.methodType(void.class, Attribute.class, Object.class));
+
+            final Field byteVectorData = ByteVector.class.getDeclaredField("data");
+            final Field byteVectorLength = ByteVector.class.getDeclaredField("length");
+            byteVectorData.setAccessible(true);
+            byteVectorLength.setAccessible(true);
+            GET_BYTE_VECTOR_DATA = lookup.unreflectGetter(byteVectorData);
+            SET_BYTE_VECTOR_DATA = lookup.unreflectSetter(byteVectorData);
+            SET_BYTE_VECTOR_LENGTH = lookup.unreflectSetter(byteVectorLength);
+
+            final Field condyBsmArgs = ConstantDynamic.class.getDeclaredField("bootstrapMethodArguments");
+            condyBsmArgs.setAccessible(true);
+            GET_CONSTANT_DYNAMIC_BOOTSTRAP_METHOD_ARGUMENTS = lookup.unreflectGetter(condyBsmArgs);
+
+            final Constructor<TypePath> newTypePath = TypePath.class.getDeclaredConstructor(byte[].class, int.class);
+            final Method typePathPut = TypePath.class.getDeclaredMethod("put", TypePath.class, ByteVector.class);
+            newTypePath.setAccessible(true);
+            typePathPut.setAccessible(true);
+            NEW_TYPE_PATH = lookup.unreflectConstructor(newTypePath);
+            TYPE_PATH_PUT = lookup.unreflect(typePathPut);
+
+            final Method typeReferencePutTarget =
+                TypeReference.class.getDeclaredMethod("putTarget", int.class, ByteVector.class);
+            typeReferencePutTarget.setAccessible(true);
+            TYPE_REFERENCE_PUT_TARGET = lookup.unreflect(typeReferencePutTarget);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -66,7 +82,7 @@ public class ReflectUtils {
 
     public static Attribute newAttribute(String name) {
         try {
-            return NEW_ATTRIBUTE.newInstance(name);
+            return (Attribute)NEW_ATTRIBUTE.invokeExact(name);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
@@ -74,10 +90,10 @@ public class ReflectUtils {
 
     public static byte[] getAttributeContent(Attribute attribute) {
         try {
-            if (ATTRIBUTE_CONTENT.getType() == byte[].class) {
-                return (byte[])ATTRIBUTE_CONTENT.get(attribute);
+            if (ATTRIBUTE_CONTENT_IS_BYTES) {
+                return (byte[])(Object)GET_ATTRIBUTE_CONTENT.invokeExact(attribute);
             } else {
-                return getByteVectorData((ByteVector) ATTRIBUTE_CONTENT.get(attribute));
+                return getByteVectorData((ByteVector)(Object)GET_ATTRIBUTE_CONTENT.invokeExact(attribute));
             }
         } catch (Throwable t) {
             throw new RuntimeException(t);
@@ -86,11 +102,17 @@ public class ReflectUtils {
 
     public static void setAttributeContent(Attribute attribute, byte[] content) {
         try {
-            if (ATTRIBUTE_CONTENT.getType() == byte[].class) {
-                ATTRIBUTE_CONTENT.set(attribute, content);
+            if (ATTRIBUTE_CONTENT_IS_BYTES) {
+                SET_ATTRIBUTE_CONTENT.invokeExact(attribute, (Object)content);
             } else {
-                setByteVectorLength((ByteVector) ATTRIBUTE_CONTENT.get(attribute), content.length);
-                BYTE_VECTOR_DATA.set(ATTRIBUTE_CONTENT.get(attribute), content);
+                ByteVector vector = (ByteVector)(Object)GET_ATTRIBUTE_CONTENT.invokeExact(attribute);
+                if (vector == null) {
+                    // Attributes created by newAttribute have no content yet
+                    vector = new ByteVector(0);
+                    SET_ATTRIBUTE_CONTENT.invokeExact(attribute, (Object)vector);
+                }
+                setByteVectorLength(vector, content.length);
+                SET_BYTE_VECTOR_DATA.invokeExact(vector, content);
             }
         } catch (Throwable t) {
             throw new RuntimeException(t);
@@ -99,7 +121,7 @@ public class ReflectUtils {
 
     public static byte[] getByteVectorData(ByteVector vector) {
         try {
-            return (byte[])BYTE_VECTOR_DATA.get(vector);
+            return (byte[])GET_BYTE_VECTOR_DATA.invokeExact(vector);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
@@ -107,7 +129,7 @@ public class ReflectUtils {
 
     public static void setByteVectorLength(ByteVector vector, int length) {
         try {
-            BYTE_VECTOR_LENGTH.setInt(vector, length);
+            SET_BYTE_VECTOR_LENGTH.invokeExact(vector, length);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
@@ -115,7 +137,7 @@ public class ReflectUtils {
 
     public static Object[] getConstantDynamicBootstrapMethodArguments(ConstantDynamic constant) {
         try {
-            return (Object[])CONSTANT_DYNAMIC_BOOTSTRAP_METHOD_ARGUMENTS.get(constant);
+            return (Object[])GET_CONSTANT_DYNAMIC_BOOTSTRAP_METHOD_ARGUMENTS.invokeExact(constant);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
@@ -123,7 +145,7 @@ public class ReflectUtils {
 
     public static TypePath newTypePath(byte[] typePathContainer, int typePathOffset) {
         try {
-            return NEW_TYPE_PATH.newInstance(typePathContainer, typePathOffset);
+            return (TypePath)NEW_TYPE_PATH.invokeExact(typePathContainer, typePathOffset);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
@@ -131,7 +153,7 @@ public class ReflectUtils {
 
     public static void invokeTypePathPut(TypePath typePath, ByteVector output) {
         try {
-            TYPE_PATH_PUT.invoke(null, typePath, output);
+            TYPE_PATH_PUT.invokeExact(typePath, output);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
@@ -139,20 +161,7 @@ public class ReflectUtils {
 
     public static void invokeTypeReferencePutTarget(int targetTypeAndInfo, ByteVector output) {
         try {
-            TYPE_REFERENCE_PUT_TARGET.invoke(null, targetTypeAndInfo, output);
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
-        }
-    }
-
-    public static <T> void invokeAbstractDeltaApplyTo(AbstractDelta<T> delta, List<T> target) throws PatchFailedException {
-        try {
-            ABSTRACT_DELTA_APPLY_TO.invoke(delta, target);
-        } catch (InvocationTargetException e) {
-            if (e.getCause() instanceof PatchFailedException) {
-                throw (PatchFailedException)e.getCause();
-            }
-            throw new RuntimeException(e);
+            TYPE_REFERENCE_PUT_TARGET.invokeExact(targetTypeAndInfo, output);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
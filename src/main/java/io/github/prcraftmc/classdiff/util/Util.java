@@ -1,17 +1,27 @@
 package io.github.prcraftmc.classdiff.util;
 
 import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Chunk;
 import com.github.difflib.patch.Patch;
 import com.github.difflib.patch.PatchFailedException;
 import io.github.prcraftmc.classdiff.UncheckedPatchFailure;
+import org.objectweb.asm.ByteVector;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.LabelNode;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 import java.util.function.Supplier;
 
 public class Util {
+    private static final long HASH_PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long HASH_PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long HASH_PRIME_3 = 0x165667B19E3779F9L;
+    private static final long HASH_PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long HASH_PRIME_5 = 0x27D4EB2F165667C5L;
+
     public static <T> List<T> getListFromArray(List<T>[] array, int i) {
         if (array == null) {
             return Collections.emptyList();
@@ -36,18 +46,95 @@ public class Util {
         return result;
     }
 
-    // This method is a tad slow for now. ReflectUtils needs optimization.
+    /**
+     * Applies {@code patch} to {@code target} in a single pass, verifying that the source of every delta matches
+     * {@code target}. The deltas must be sorted and must not overlap, as is the case for generated and read patches.
+     * This is equivalent to {@link Patch#applyTo}, which applies each delta separately.
+     */
+    public static <T> List<T> applyPatch(Patch<T> patch, List<T> target) throws PatchFailedException {
+        return applyPatch(patch, target, true);
+    }
+
+    /**
+     * Like {@link #applyPatch}, but the source of the deltas isn't checked against {@code target}.
+     */
     public static <T> List<T> applyPatchUnchecked(Patch<T> patch, List<T> target) {
-        final List<T> result = new ArrayList<>(target);
-        final List<AbstractDelta<T>> deltas = patch.getDeltas();
-        final ListIterator<AbstractDelta<T>> it = deltas.listIterator(deltas.size());
         try {
-            while (it.hasPrevious()) {
-                ReflectUtils.invokeAbstractDeltaApplyTo(it.previous(), result);
-            }
+            return applyPatch(patch, target, false);
         } catch (PatchFailedException e) {
             throw new UncheckedPatchFailure(e);
         }
+    }
+
+    /**
+     * Applies {@code patch} directly to {@code list}, by removing and inserting only the changed ranges. The source of
+     * the deltas isn't checked, and the inserted insns are added as is, without resolving their labels.
+     *
+     * @return The inserted insns, in order.
+     */
+    public static List<AbstractInsnNode> applyPatchInPlace(Patch<AbstractInsnNode> patch, InsnList list) {
+        final AbstractInsnNode[] originals = list.toArray();
+        final List<AbstractInsnNode> inserted = new ArrayList<>();
+        int position = 0;
+        for (final AbstractDelta<AbstractInsnNode> delta : patch.getDeltas()) {
+            final Chunk<AbstractInsnNode> source = delta.getSource();
+            final int start = source.getPosition();
+            final int end = start + source.size();
+            if (start < position || end > originals.length) {
+                throw new UncheckedPatchFailure(new PatchFailedException(
+                    "Delta at " + start + " with length " + source.size() + " is out of bounds or overlaps the previous delta"
+                ));
+            }
+            for (int i = start; i < end; i++) {
+                list.remove(originals[i]);
+            }
+            final AbstractInsnNode next = end < originals.length ? originals[end] : null;
+            for (final AbstractInsnNode insn : delta.getTarget().getLines()) {
+                if (next != null) {
+                    list.insertBefore(next, insn);
+                } else {
+                    list.add(insn);
+                }
+                inserted.add(insn);
+            }
+            position = end;
+        }
+        return inserted;
+    }
+
+    private static <T> List<T> applyPatch(Patch<T> patch, List<T> target, boolean verify) throws PatchFailedException {
+        final List<AbstractDelta<T>> deltas = patch.getDeltas();
+        int resultSize = target.size();
+        for (final AbstractDelta<T> delta : deltas) {
+            resultSize += delta.getTarget().size() - delta.getSource().size();
+        }
+        final List<T> result = new ArrayList<>(Math.max(resultSize, 0));
+        int position = 0;
+        for (final AbstractDelta<T> delta : deltas) {
+            final Chunk<T> source = delta.getSource();
+            final int start = source.getPosition();
+            final int end = start + source.size();
+            if (start < position) {
+                throw new PatchFailedException("Delta at " + start + " overlaps the previous delta ending at " + position);
+            }
+            if (end > target.size()) {
+                throw new PatchFailedException(
+                    "Delta at " + start + " with length " + source.size() + " is out of bounds for size " + target.size()
+                );
+            }
+            result.addAll(target.subList(position, start));
+            if (verify) {
+                final List<T> sourceLines = source.getLines();
+                for (int i = 0; i < sourceLines.size(); i++) {
+                    if (!Objects.equals(sourceLines.get(i), target.get(start + i))) {
+                        throw new PatchFailedException("Incorrect source for delta at " + start);
+                    }
+                }
+            }
+            result.addAll(delta.getTarget().getLines());
+            position = end;
+        }
+        result.addAll(target.subList(position, target.size()));
         return result;
     }
 
@@ -71,6 +158,47 @@ public class Util {
         };
     }
 
+    /**
+     * Puts {@code value} as an unsigned LEB128 varint, which takes one byte for values below 128 and at most five.
+     * This is the inverse of {@link ByteReader#readVarInt}.
+     */
+    public static void putVarInt(ByteVector vector, int value) {
+        while ((value & ~0x7f) != 0) {
+            vector.putByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        vector.putByte(value);
+    }
+
+    /**
+     * A fast, non-cryptographic 64-bit hash of the remaining bytes of {@code data}, based on the xxHash64 mixing
+     * steps. The position of {@code data} is not changed.
+     */
+    public static long hash64(ByteBuffer data) {
+        final ByteBuffer buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final int length = buffer.remaining();
+        long hash = HASH_PRIME_5 + length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            hash ^= Long.rotateLeft(buffer.getLong(i) * HASH_PRIME_2, 31) * HASH_PRIME_1;
+            hash = Long.rotateLeft(hash, 27) * HASH_PRIME_1 + HASH_PRIME_4;
+        }
+        for (; i < length; i++) {
+            hash ^= (buffer.get(i) & 0xffL) * HASH_PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * HASH_PRIME_1;
+        }
+        hash ^= hash >>> 33;
+        hash *= HASH_PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= HASH_PRIME_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    public static long hash64(byte[] data) {
+        return hash64(ByteBuffer.wrap(data));
+    }
+
     public static boolean isNullOrEmpty(List<?> list) {
         return list == null || list.isEmpty();
     }
@@ -1,12 +1,28 @@
 package io.github.prcraftmc.classdif.test;
 
+import com.github.difflib.algorithm.Change;
+import com.github.difflib.algorithm.DiffAlgorithmFactory;
+import com.github.difflib.algorithm.DiffAlgorithmI;
+import com.github.difflib.patch.DeltaType;
+import com.github.difflib.patch.Patch;
 import io.github.prcraftmc.classdiff.ClassDiffer;
 import io.github.prcraftmc.classdiff.ClassPatcher;
+import io.github.prcraftmc.classdiff.CompiledPatch;
+import io.github.prcraftmc.classdiff.DiskPatchCache;
+import io.github.prcraftmc.classdiff.PatchComposer;
+import io.github.prcraftmc.classdiff.format.DiffConstants;
 import io.github.prcraftmc.classdiff.format.DiffReader;
+import io.github.prcraftmc.classdiff.format.DiffVisitor;
 import io.github.prcraftmc.classdiff.format.DiffWriter;
+import io.github.prcraftmc.classdiff.format.PatchArchive;
+import io.github.prcraftmc.classdiff.format.PatchArchiveWriter;
+import io.github.prcraftmc.classdiff.util.Util;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
 import org.objectweb.asm.util.TraceClassVisitor;
 
 import java.io.IOException;
@@ -14,10 +30,27 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ClassTest {
     private void test(String file1, String file2) throws IOException {
@@ -44,6 +77,639 @@ public class ClassTest {
         );
     }
 
+    @Test
+    public void testByteBuffer() throws IOException {
+        final ClassNode helloNode = new ClassNode();
+        final ClassNode worldNode = new ClassNode();
+        new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/String.class")).accept(helloNode, 0);
+        new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Class.class")).accept(worldNode, 0);
+
+        final DiffWriter writer = new DiffWriter();
+        ClassDiffer.diff(helloNode, worldNode, writer);
+        final byte[] result = writer.toByteArray();
+
+        // Embedded in a larger direct buffer, like a patch in a mapped archive
+        final ByteBuffer archive = ByteBuffer.allocateDirect(result.length + 16);
+        archive.position(7);
+        archive.put(result);
+        archive.position(7);
+        archive.limit(7 + result.length);
+        ClassPatcher.patch(helloNode, new DiffReader(archive));
+
+        assertEquals(7, archive.position());
+        assertEquals(
+            toString(worldNode),
+            toString(helloNode)
+        );
+    }
+
+    @Test
+    public void testV1() throws IOException {
+        final ClassNode helloNode = new ClassNode();
+        final ClassNode worldNode = new ClassNode();
+        new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Integer.class")).accept(helloNode, 0);
+        new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Float.class")).accept(worldNode, 0);
+
+        final DiffWriter writer = new DiffWriter();
+        ClassDiffer.diff(helloNode, worldNode, writer);
+
+        // Rewrite the diff in the old format, and make sure it still applies
+        final DiffWriter v1Writer = new DiffWriter();
+        new DiffReader(writer.toByteArray()).accept(new DiffVisitor(v1Writer) {
+            @Override
+            public void visit(
+                int diffVersion,
+                int classVersion,
+                int access,
+                String name,
+                String signature,
+                String superName,
+                Patch<String> interfaces
+            ) {
+                super.visit(DiffConstants.V1, classVersion, access, name, signature, superName, interfaces);
+            }
+        }, helloNode);
+        final byte[] result = v1Writer.toByteArray();
+        assertEquals(DiffConstants.V1, ByteBuffer.wrap(result).getShort(4));
+
+        ClassPatcher.patch(helloNode, new DiffReader(result));
+
+        assertEquals(
+            toString(worldNode),
+            toString(helloNode)
+        );
+    }
+
+    @Test
+    public void testClassReaders() throws IOException {
+        final ClassReader helloReader = new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/String.class"));
+        final ClassReader worldReader = new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Class.class"));
+        final ClassNode helloNode = new ClassNode();
+        final ClassNode worldNode = new ClassNode();
+        helloReader.accept(helloNode, 0);
+        worldReader.accept(worldNode, 0);
+
+        // Methods skipped by the fast path must give the same diff as a full comparison
+        final DiffWriter nodeWriter = new DiffWriter();
+        ClassDiffer.diff(helloNode, worldNode, nodeWriter);
+        final DiffWriter readerWriter = new DiffWriter();
+        ClassDiffer.diff(helloReader, worldReader, readerWriter);
+        assertArrayEquals(nodeWriter.toByteArray(), readerWriter.toByteArray());
+
+        final DiffWriter selfWriter = new DiffWriter();
+        ClassDiffer.diff(helloReader, new ClassReader(readResource("/java/lang/String.class")), selfWriter);
+        final byte[] selfPatch = selfWriter.toByteArray();
+        assertEquals(8, selfPatch.length);
+        assertTrue(new DiffReader(selfPatch).isUnchanged());
+        ClassPatcher.patch(helloNode, new DiffReader(selfPatch));
+        final ClassNode expected = new ClassNode();
+        helloReader.accept(expected, 0);
+        assertEquals(toString(expected), toString(helloNode));
+    }
+
+    @Test
+    public void testUnchangedMarker() throws IOException {
+        final byte[] hello = readResource("/java/lang/String.class");
+        final byte[] world = readResource("/java/lang/Class.class");
+        final ClassNode helloNode = new ClassNode();
+        new ClassReader(hello).accept(helloNode, 0);
+
+        // Both classes in one buffer, so comparing whole buffers would call them the same
+        final byte[] both = new byte[3 + hello.length + world.length];
+        System.arraycopy(hello, 0, both, 3, hello.length);
+        System.arraycopy(world, 0, both, 3 + hello.length, world.length);
+        final ClassReader helloReader = new ClassReader(both, 3, hello.length);
+        final ClassReader worldReader = new ClassReader(both, 3 + hello.length, world.length);
+
+        final DiffWriter sameWriter = new DiffWriter();
+        ClassDiffer.diff(helloReader, new ClassReader(hello), sameWriter);
+        assertEquals(8, sameWriter.toByteArray().length);
+        assertTrue(new DiffReader(sameWriter.toByteArray()).isUnchanged());
+
+        final DiffWriter changedWriter = new DiffWriter();
+        ClassDiffer.diff(helloReader, worldReader, changedWriter);
+        final DiffReader changed = new DiffReader(changedWriter.toByteArray());
+        assertFalse(changed.isUnchanged());
+        final ClassNode patched = new ClassNode();
+        new ClassReader(hello).accept(patched, 0);
+        ClassPatcher.patch(patched, changed);
+        final ClassNode expected = new ClassNode();
+        worldReader.accept(expected, 0);
+        assertEquals(toString(expected), toString(patched));
+
+        // V1 has no marker, so an unchanged class is written as an empty diff instead
+        for (final int diffVersion : new int[] {DiffConstants.V1, DiffConstants.V2}) {
+            final DiffWriter writer = new DiffWriter();
+            writer.visitUnchanged(diffVersion);
+            final DiffReader reader = new DiffReader(writer.toByteArray());
+            assertEquals(diffVersion >= DiffConstants.V2, reader.isUnchanged());
+            final ClassNode node = new ClassNode();
+            new ClassReader(hello).accept(node, 0);
+            ClassPatcher.patch(node, reader);
+            assertEquals(toString(helloNode), toString(node));
+
+            final boolean[] visitedUnchanged = new boolean[1];
+            reader.accept(new DiffVisitor() {
+                @Override
+                public void visitUnchanged(int diffVersion) {
+                    visitedUnchanged[0] = true;
+                }
+            }, new ClassNode());
+            assertEquals(diffVersion >= DiffConstants.V2, visitedUnchanged[0]);
+        }
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream is = ClassTest.class.getResourceAsStream(name)) {
+            return is.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testParallelMethods() throws IOException {
+        final ClassNode helloNode = new ClassNode();
+        final ClassNode worldNode = new ClassNode();
+        new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/String.class")).accept(helloNode, 0);
+        new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Class.class")).accept(worldNode, 0);
+        final DiffWriter expected = new DiffWriter();
+        ClassDiffer.diff(helloNode, worldNode, expected);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final DiffWriter actual = new DiffWriter();
+            new ClassDiffer(actual, null, pool).accept(helloNode, worldNode);
+            assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompiledPatch() throws Exception {
+        final byte[] hello = readResource("/java/lang/String.class");
+        final ClassReader helloReader = new ClassReader(hello);
+        final ClassNode helloNode = new ClassNode();
+        final ClassNode worldNode = new ClassNode();
+        helloReader.accept(helloNode, 0);
+        new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Class.class")).accept(worldNode, 0);
+
+        final DiffWriter writer = new DiffWriter();
+        ClassDiffer.diff(helloNode, worldNode, writer);
+        final CompiledPatch patch = new CompiledPatch(writer.toByteArray());
+
+        final String expected = toString(worldNode);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final List<ForkJoinTask<String>> tasks = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                tasks.add(pool.submit(() -> {
+                    final ClassNode result = new ClassNode();
+                    new ClassReader(patch.patch(hello)).accept(result, 0);
+                    return toString(result);
+                }));
+            }
+            for (final ForkJoinTask<String> task : tasks) {
+                assertEquals(expected, task.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPatchArchive() throws IOException {
+        final byte[] hello = readResource("/java/lang/String.class");
+        final ClassReader helloReader = new ClassReader(hello);
+        final ClassReader worldReader = new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Class.class"));
+        final DiffWriter diff = new DiffWriter();
+        ClassDiffer.diff(helloReader, worldReader, diff);
+
+        final PatchArchiveWriter writer = new PatchArchiveWriter();
+        for (int i = 0; i < 100; i++) {
+            writer.add("test/Class" + i, i, new byte[] {(byte)i});
+        }
+        writer.add("java/lang/String", Util.hash64(hello), diff);
+        final PatchArchive archive = new PatchArchive(ByteBuffer.wrap(writer.toByteArray()));
+        assertEquals(101, archive.size());
+        for (int i = 0; i < 100; i++) {
+            final int index = archive.indexOf("test/Class" + i);
+            assertEquals("test/Class" + i, archive.getName(index));
+            assertEquals(i, archive.getSourceChecksum(index));
+            assertEquals(ByteBuffer.wrap(new byte[] {(byte)i}), archive.getPatch(index));
+        }
+        assertEquals(-1, archive.indexOf("test/Class100"));
+
+        final int index = archive.indexOf("java/lang/String");
+        assertEquals(Util.hash64(hello), archive.getSourceChecksum(index));
+        final ClassNode helloNode = new ClassNode();
+        final ClassNode worldNode = new ClassNode();
+        helloReader.accept(helloNode, 0);
+        worldReader.accept(worldNode, 0);
+        ClassPatcher.patch(helloNode, archive.getDiff("java/lang/String"));
+        assertEquals(toString(worldNode), toString(helloNode));
+    }
+
+    @Test
+    public void testDiskPatchCache(@TempDir Path directory) throws IOException {
+        final byte[] source = {1, 2, 3};
+        final byte[] patch = {4, 5, 6};
+        final DiskPatchCache cache = new DiskPatchCache(directory, 16);
+        assertNull(cache.get(source, patch, 0));
+        assertArrayEquals(new byte[10], cache.get(source, patch, 0, () -> new byte[10]));
+        assertArrayEquals(new byte[10], cache.get(source, patch, 0, () -> {
+            throw new AssertionError("Patched a cached class");
+        }));
+        assertNull(cache.get(source, patch, 1));
+        // Same bytes overall, but split differently between the source and the patch
+        assertNull(cache.get(new byte[] {1, 2}, new byte[] {3, 4, 5, 6}, 0));
+
+        // Over the maximum size, so the first entry is evicted
+        cache.put(patch, source, 0, new byte[10]);
+        assertNull(cache.get(source, patch, 0));
+        assertArrayEquals(new byte[10], new DiskPatchCache(directory, 16).get(patch, source, 0));
+        assertNull(new DiskPatchCache(directory, 0).get(patch, source, 0));
+        try (Stream<Path> files = Files.walk(directory)) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void testDiskPatchCacheEviction(@TempDir Path directory) throws IOException {
+        final DiskPatchCache cache = new DiskPatchCache(directory, 30);
+        final byte[][] sources = {{0}, {1}, {2}, {3}};
+        for (int i = 0; i < 3; i++) {
+            cache.put(sources[i], sources[i], 0, new byte[10]);
+            // Replacing an entry doesn't count its size twice
+            cache.put(sources[i], sources[i], 0, new byte[10]);
+            backdateNewFiles(directory, 1000L * (i + 1));
+        }
+        // Reading the oldest entry makes it the most recently used
+        assertArrayEquals(new byte[10], cache.get(sources[0], sources[0], 0));
+
+        // Over the maximum size, so the least recently used entries are evicted until the cache is under 90% of it
+        cache.put(sources[3], sources[3], 0, new byte[10]);
+        assertArrayEquals(new byte[10], cache.get(sources[0], sources[0], 0));
+        assertNull(cache.get(sources[1], sources[1], 0));
+        assertNull(cache.get(sources[2], sources[2], 0));
+        assertArrayEquals(new byte[10], cache.get(sources[3], sources[3], 0));
+    }
+
+    /**
+     * Gives the files written since the last call a fixed modification time, so that their order doesn't depend on
+     * the resolution of the file system's clock.
+     */
+    private static void backdateNewFiles(Path directory, long time) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            if (Files.getLastModifiedTime(file).toMillis() > 100_000) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(time));
+            }
+        }
+    }
+
+    @Test
+    public void testComposePatches() throws IOException {
+        final ClassReader[] readers = {
+            new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/String.class")),
+            new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Class.class")),
+            new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/Object.class"))
+        };
+        final List<DiffReader> patches = new ArrayList<>();
+        for (int i = 1; i < readers.length; i++) {
+            final DiffWriter writer = new DiffWriter();
+            ClassDiffer.diff(readers[i - 1], readers[i], writer);
+            patches.add(new DiffReader(writer.toByteArray()));
+        }
+        final DiffWriter composed = new DiffWriter();
+        PatchComposer.compose(readers[0], patches, 0, composed);
+
+        final ClassNode node = new ClassNode();
+        readers[0].accept(node, 0);
+        ClassPatcher.patch(node, new DiffReader(composed.toByteArray()));
+        final ClassNode expected = new ClassNode();
+        readers[2].accept(expected, 0);
+        assertEquals(toString(expected), toString(node));
+
+        final DiffWriter unchanged = new DiffWriter();
+        unchanged.visitUnchanged(DiffConstants.V_MAX);
+        final DiffWriter identity = new DiffWriter();
+        PatchComposer.compose(
+            readers[0], new DiffReader(unchanged.toByteArray()), new DiffReader(unchanged.toByteArray()), identity
+        );
+        assertTrue(new DiffReader(identity.toByteArray()).isUnchanged());
+    }
+
+    @Test
+    public void testComposeMembers() throws IOException {
+        final ClassReader reader = new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/String.class"));
+        final ClassNode[] nodes = new ClassNode[3];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new ClassNode();
+            reader.accept(nodes[i], 0);
+        }
+        final MethodNode removed = nodes[0].methods.get(6);
+
+        // The first diff, with a method and a field that only it touches
+        for (int i = 1; i < nodes.length; i++) {
+            final ClassNode node = nodes[i];
+            node.methods.get(2).instructions.insert(new InsnNode(Opcodes.NOP));
+            node.methods.get(4).instructions.insert(new InsnNode(Opcodes.NOP));
+            node.methods.remove(6);
+            node.methods.add(1, new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "added", "()V", null, null));
+            node.fields.get(1).access |= Opcodes.ACC_TRANSIENT;
+            node.fields.get(2).access |= Opcodes.ACC_TRANSIENT;
+        }
+        // The second diff, which touches some of the same members and adds back the one the first removed
+        final ClassNode last = nodes[2];
+        last.methods.get(4).instructions.insert(new InsnNode(Opcodes.NOP));
+        last.methods.get(5).instructions.insert(new InsnNode(Opcodes.ICONST_0));
+        last.methods.get(5).instructions.insert(new InsnNode(Opcodes.POP));
+        last.methods.get(1).access &= ~Opcodes.ACC_ABSTRACT;
+        last.methods.add(removed);
+        last.fields.get(1).access |= Opcodes.ACC_VOLATILE;
+        last.fields.get(3).access |= Opcodes.ACC_TRANSIENT;
+
+        final DiffWriter first = new DiffWriter();
+        ClassDiffer.diff(nodes[0], nodes[1], first);
+        final DiffWriter second = new DiffWriter();
+        ClassDiffer.diff(nodes[1], nodes[2], second);
+        final DiffWriter composed = new DiffWriter();
+        PatchComposer.compose(
+            reader, new DiffReader(first.toByteArray()), new DiffReader(second.toByteArray()), composed
+        );
+
+        final ClassNode node = new ClassNode();
+        reader.accept(node, 0);
+        ClassPatcher.patch(node, new DiffReader(composed.toByteArray()));
+        assertEquals(toString(last), toString(node));
+    }
+
+    @Test
+    public void testStreamingPatch() throws IOException {
+        final ClassReader helloReader = new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/String.class"));
+        final ClassNode helloNode = new ClassNode();
+        final ClassNode worldNode = new ClassNode();
+        helloReader.accept(helloNode, 0);
+        helloReader.accept(worldNode, 0);
+        worldNode.methods.remove(3);
+        worldNode.methods.get(5).instructions.insert(new InsnNode(Opcodes.NOP));
+        worldNode.methods.add(1, new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "added", "()V", null, null));
+        worldNode.fields.remove(0);
+        worldNode.fields.get(1).access |= Opcodes.ACC_TRANSIENT;
+
+        final DiffWriter writer = new DiffWriter();
+        ClassDiffer.diff(helloNode, worldNode, writer);
+        final DiffReader patch = new DiffReader(writer.toByteArray());
+        assertEquals(2, patch.getPatchedMethods().size());
+        assertEquals(1, patch.getPatchedFields().size());
+
+        final ClassWriter output = new ClassWriter(helloReader, 0);
+        ClassPatcher.patch(helloReader, patch, output);
+        final ClassNode patchedNode = new ClassNode();
+        new ClassReader(output.toByteArray()).accept(patchedNode, 0);
+        assertEquals(toString(worldNode), toString(patchedNode));
+    }
+
+    @Test
+    public void testStreamingPatchReorder() throws IOException {
+        final ClassReader helloReader = new ClassReader(ClassTest.class.getResourceAsStream("/java/lang/String.class"));
+        final ClassNode helloNode = new ClassNode();
+        final ClassNode worldNode = new ClassNode();
+        helloReader.accept(helloNode, 0);
+        helloReader.accept(worldNode, 0);
+        // Moved members are untouched, but the reader visits them in their original order
+        worldNode.methods.add(0, worldNode.methods.remove(1));
+        worldNode.methods.add(2, worldNode.methods.remove(worldNode.methods.size() - 1));
+        worldNode.methods.get(10).instructions.insert(new InsnNode(Opcodes.NOP));
+        worldNode.fields.add(worldNode.fields.remove(0));
+
+        final DiffWriter writer = new DiffWriter();
+        ClassDiffer.diff(helloNode, worldNode, writer);
+
+        final ClassWriter output = new ClassWriter(helloReader, 0);
+        ClassPatcher.patch(helloReader, new DiffReader(writer.toByteArray()), output);
+        final ClassNode patchedNode = new ClassNode();
+        new ClassReader(output.toByteArray()).accept(patchedNode, 0);
+        assertEquals(worldNode.methods.size(), patchedNode.methods.size());
+        assertEquals(toString(worldNode), toString(patchedNode));
+    }
+
+    @Test
+    public void testHeaderEncoding() {
+        // In V2, an unchanged (-1) version and access take one byte each, like any other small value
+        assertEquals(headerPatch(DiffConstants.V2, 52, 1).length, headerPatch(DiffConstants.V2, -1, -1).length);
+        assertEquals(headerPatch(DiffConstants.V1, 52, 1).length, headerPatch(DiffConstants.V1, -1, -1).length);
+        for (final int diffVersion : new int[] {DiffConstants.V1, DiffConstants.V2}) {
+            for (final int value : new int[] {-1, 0, 52, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, 0xffff0034}) {
+                final int[] read = new int[2];
+                new DiffReader(headerPatch(diffVersion, value, value)).accept(new DiffVisitor() {
+                    @Override
+                    public void visit(
+                        int diffVersion,
+                        int classVersion,
+                        int access,
+                        String name,
+                        String signature,
+                        String superName,
+                        Patch<String> interfaces
+                    ) {
+                        read[0] = classVersion;
+                        read[1] = access;
+                    }
+                }, new ClassNode());
+                assertArrayEquals(new int[] {value, value}, read);
+            }
+        }
+    }
+
+    private static byte[] headerPatch(int diffVersion, int classVersion, int access) {
+        final DiffWriter writer = new DiffWriter();
+        writer.visit(diffVersion, classVersion, access, null, null, null, null);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    @Test
+    public void testHugeMethod() {
+        final ClassNode helloNode = hugeMethodClass(false);
+        final ClassNode worldNode = hugeMethodClass(true);
+
+        final DiffWriter writer = new DiffWriter();
+        ClassDiffer.diff(helloNode, worldNode, writer);
+        ClassPatcher.patch(helloNode, new DiffReader(writer.toByteArray()));
+
+        assertEquals(
+            toString(worldNode),
+            toString(helloNode)
+        );
+    }
+
+    @Test
+    public void testHugeMethodV1() {
+        final DiffWriter writer = new DiffWriter();
+        assertThrows(IllegalArgumentException.class, () -> new ClassDiffer(new DiffVisitor(writer) {
+            @Override
+            public void visit(
+                int diffVersion,
+                int classVersion,
+                int access,
+                String name,
+                String signature,
+                String superName,
+                Patch<String> interfaces
+            ) {
+                super.visit(DiffConstants.V1, classVersion, access, name, signature, superName, interfaces);
+            }
+        }).accept(hugeMethodClass(false), hugeMethodClass(true)));
+    }
+
+    @Test
+    public void testReplacedJumpTarget() {
+        final ClassNode original = jumpClass(Opcodes.ICONST_0);
+        final ClassNode modified = jumpClass(Opcodes.ICONST_1);
+
+        // Labels compare equal by id, so a diff is free to replace a label while keeping the jump to it
+        final DiffAlgorithmFactory replaceLabels = new DiffAlgorithmFactory() {
+            @Override
+            public <T> DiffAlgorithmI<T> create() {
+                return create(Objects::equals);
+            }
+
+            @Override
+            public <T> DiffAlgorithmI<T> create(BiPredicate<T, T> equalizer) {
+                return (source, target, progress) -> {
+                    final List<Change> result = new ArrayList<>();
+                    for (int i = 0; i < source.size(); i++) {
+                        if (source.get(i) instanceof LabelNode || !equalizer.test(source.get(i), target.get(i))) {
+                            result.add(new Change(DeltaType.CHANGE, i, i + 1, i, i + 1));
+                        }
+                    }
+                    return result;
+                };
+            }
+        };
+        final DiffWriter writer = new DiffWriter();
+        new ClassDiffer(writer, replaceLabels).accept(original, modified);
+
+        ClassPatcher.patch(original, new DiffReader(writer.toByteArray()));
+        assertLabelsInMethod(original.methods.get(0));
+        assertEquals(toString(modified), toString(original));
+    }
+
+    @Test
+    public void testMovedLabel() {
+        final ClassNode original = movedLabelClass(false);
+        final ClassNode modified = movedLabelClass(true);
+        final DiffWriter writer = new DiffWriter();
+        ClassDiffer.diff(original, modified, writer);
+
+        // Keeping the three insns is cheaper than keeping the label, so the label is removed and reinserted earlier
+        ClassPatcher.patch(original, new DiffReader(writer.toByteArray()));
+        assertLabelsInMethod(original.methods.get(0));
+        assertEquals(toString(modified), toString(original));
+    }
+
+    private static ClassNode movedLabelClass(boolean modified) {
+        final ClassNode result = new ClassNode();
+        result.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "Moved", null, "java/lang/Object", null);
+        final MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "moved", "()V", null, null);
+        final LabelNode start = new LabelNode();
+        final LabelNode label = new LabelNode();
+        final InsnList body = new InsnList();
+        body.add(new InsnNode(Opcodes.ICONST_1));
+        body.add(new InsnNode(Opcodes.ICONST_2));
+        body.add(new InsnNode(Opcodes.POP2));
+        method.instructions.add(start);
+        method.instructions.add(new JumpInsnNode(Opcodes.GOTO, label));
+        if (!modified) {
+            method.instructions.add(body);
+        }
+        method.instructions.add(label);
+        method.instructions.add(new LineNumberNode(5, label));
+        if (modified) {
+            method.instructions.add(body);
+        }
+        method.instructions.add(new InsnNode(Opcodes.RETURN));
+        method.localVariables = new ArrayList<>();
+        method.localVariables.add(new LocalVariableNode("x", "I", null, start, label, 0));
+        method.tryCatchBlocks = new ArrayList<>();
+        method.tryCatchBlocks.add(new TryCatchBlockNode(start, label, label, null));
+        result.methods.add(method);
+        return result;
+    }
+
+    private static ClassNode jumpClass(int constant) {
+        final ClassNode result = new ClassNode();
+        result.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "Jump", null, "java/lang/Object", null);
+        final MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "jump", "()V", null, null);
+        final LabelNode label = new LabelNode();
+        method.instructions.add(new InsnNode(constant));
+        method.instructions.add(new JumpInsnNode(Opcodes.IFEQ, label));
+        method.instructions.add(new InsnNode(Opcodes.NOP));
+        method.instructions.add(label);
+        method.instructions.add(new InsnNode(Opcodes.RETURN));
+        result.methods.add(method);
+        return result;
+    }
+
+    /**
+     * Checks that every label the method refers to is part of its instruction list.
+     */
+    private static void assertLabelsInMethod(MethodNode method) {
+        final List<LabelNode> labels = new ArrayList<>();
+        for (final AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof JumpInsnNode) {
+                labels.add(((JumpInsnNode)insn).label);
+            } else if (insn instanceof LineNumberNode) {
+                labels.add(((LineNumberNode)insn).start);
+            } else if (insn instanceof TableSwitchInsnNode) {
+                labels.add(((TableSwitchInsnNode)insn).dflt);
+                labels.addAll(((TableSwitchInsnNode)insn).labels);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                labels.add(((LookupSwitchInsnNode)insn).dflt);
+                labels.addAll(((LookupSwitchInsnNode)insn).labels);
+            }
+        }
+        if (method.localVariables != null) {
+            for (final LocalVariableNode local : method.localVariables) {
+                labels.add(local.start);
+                labels.add(local.end);
+            }
+        }
+        if (method.tryCatchBlocks != null) {
+            for (final TryCatchBlockNode block : method.tryCatchBlocks) {
+                labels.add(block.start);
+                labels.add(block.end);
+                labels.add(block.handler);
+            }
+        }
+        for (final LabelNode label : labels) {
+            assertTrue(method.instructions.contains(label), () -> method.name + " refers to a label outside of it");
+        }
+    }
+
+    private static ClassNode hugeMethodClass(boolean modified) {
+        final ClassNode result = new ClassNode();
+        result.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "Huge", null, "java/lang/Object", null);
+        final MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "huge", "()V", null, null);
+        for (int i = 0; i < 70000; i++) {
+            method.instructions.add(new InsnNode(Opcodes.NOP));
+        }
+        if (modified) {
+            final LabelNode label = new LabelNode();
+            method.instructions.add(label);
+            method.instructions.add(new LineNumberNode(1, label));
+            method.instructions.add(new InsnNode(Opcodes.ICONST_0));
+            method.instructions.add(new InsnNode(Opcodes.POP));
+        }
+        method.instructions.add(new InsnNode(Opcodes.RETURN));
+        result.methods.add(method);
+        return result;
+    }
+
     private String toString(ClassNode node) {
         final StringWriter result = new StringWriter();
         node.accept(new TraceClassVisitor(new PrintWriter(result)));
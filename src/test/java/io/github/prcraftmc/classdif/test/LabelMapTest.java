@@ -0,0 +1,61 @@
+package io.github.prcraftmc.classdif.test;
+
+import io.github.prcraftmc.classdiff.util.LabelMap;
+import io.github.prcraftmc.classdiff.util.SyntheticLabelNode;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LabelNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LabelMapTest {
+    @Test
+    public void testGrowth() {
+        final List<AbstractInsnNode> insns = new ArrayList<>();
+        final List<LabelNode> labels = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            insns.add(new InsnNode(Opcodes.NOP));
+            if (i % 3 == 0) {
+                final LabelNode label = new LabelNode();
+                insns.add(label);
+                labels.add(label);
+            }
+        }
+
+        // Not a Collection, so the size isn't known up front and the label array has to grow
+        final LabelMap map = new LabelMap(insns::iterator);
+        assertEquals(labels.size(), map.size());
+        for (int id = 0; id < labels.size(); id++) {
+            assertSame(labels.get(id), map.byId(id));
+            assertEquals(id, map.getId(labels.get(id)));
+        }
+
+        final List<LabelNode> iterated = new ArrayList<>();
+        map.forEach(iterated::add);
+        assertEquals(labels, iterated);
+    }
+
+    @Test
+    public void testUnknownLabel() {
+        final LabelMap map = new LabelMap(new LabelNode(), new LabelNode());
+        assertThrows(IllegalArgumentException.class, () -> map.getId(new LabelNode()));
+        assertThrows(IllegalArgumentException.class, () -> LabelMap.EMPTY.getId(new LabelNode()));
+    }
+
+    @Test
+    public void testSyntheticLabel() {
+        final LabelNode first = new LabelNode();
+        final LabelNode second = new LabelNode();
+        final LabelMap map = new LabelMap(first, second);
+        assertEquals(1, map.getId(new SyntheticLabelNode(1)));
+        assertSame(second, map.resolve(new SyntheticLabelNode(1)));
+        assertSame(first, map.resolve(first));
+    }
+}
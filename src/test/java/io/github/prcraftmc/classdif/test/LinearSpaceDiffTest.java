@@ -0,0 +1,82 @@
+package io.github.prcraftmc.classdif.test;
+
+import com.github.difflib.DiffUtils;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Patch;
+import com.github.difflib.patch.PatchFailedException;
+import io.github.prcraftmc.classdiff.util.LinearSpaceDiff;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LinearSpaceDiffTest {
+    @Test
+    public void testMatchesMyers() throws PatchFailedException {
+        final Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            final int alphabet = 1 + random.nextInt(5);
+            final List<Integer> source = randomList(random, alphabet);
+            final List<Integer> target = randomList(random, alphabet);
+
+            final Patch<Integer> expected = DiffUtils.diff(source, target);
+            final Patch<Integer> actual = DiffUtils.diff(source, target, new LinearSpaceDiff<>(), null);
+            assertEquals(target, actual.applyTo(source));
+            // Both are minimal, but may pick different alignments of the same size
+            assertEquals(editCount(expected), editCount(actual), () -> source + " -> " + target);
+        }
+    }
+
+    @Test
+    public void testAnchors() throws PatchFailedException {
+        // 9 appears once on each side, so it anchors the alignment even though it isn't part of a longest match
+        final List<Integer> source = Arrays.asList(1, 1, 1, 9, 2, 2, 2);
+        final List<Integer> target = Arrays.asList(2, 2, 2, 9, 1, 1, 1);
+
+        final Patch<Integer> plain = DiffUtils.diff(source, target, new LinearSpaceDiff<>(), null);
+        assertTrue(plain.getDeltas().stream().anyMatch(delta -> delta.getSource().getLines().contains(9)));
+
+        final Patch<Integer> anchored = DiffUtils.diff(
+            source, target, new LinearSpaceDiff<>(Objects::equals, Integer::intValue), null
+        );
+        assertEquals(target, anchored.applyTo(source));
+        assertTrue(anchored.getDeltas().stream().noneMatch(delta -> delta.getSource().getLines().contains(9)));
+    }
+
+    @Test
+    public void testHashCollisions() throws PatchFailedException {
+        final Random random = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            final List<Integer> source = randomList(random, 8);
+            final List<Integer> target = randomList(random, 8);
+            // Colliding hashes must only cost alignment quality, never correctness
+            final Patch<Integer> patch = DiffUtils.diff(
+                source, target, new LinearSpaceDiff<>(Objects::equals, value -> value % 3, value -> value % 3), null
+            );
+            assertEquals(target, patch.applyTo(source));
+        }
+    }
+
+    static List<Integer> randomList(Random random, int alphabet) {
+        final int size = random.nextInt(40);
+        final List<Integer> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(random.nextInt(alphabet));
+        }
+        return result;
+    }
+
+    static int editCount(Patch<?> patch) {
+        int result = 0;
+        for (final AbstractDelta<?> delta : patch.getDeltas()) {
+            result += delta.getSource().size() + delta.getTarget().size();
+        }
+        return result;
+    }
+}